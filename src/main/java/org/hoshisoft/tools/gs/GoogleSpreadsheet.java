@@ -19,20 +19,46 @@ package org.hoshisoft.tools.gs;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hoshisoft.tools.gs.cache.SpreadsheetKeyIndex;
+import org.hoshisoft.tools.gs.cache.WorksheetCache;
+import org.hoshisoft.tools.gs.cache.WorksheetEvictionListener;
+import org.hoshisoft.tools.gs.concurrent.SingleFlight;
 import org.hoshisoft.tools.gs.enums.GoogleDocumentsProjection;
 import org.hoshisoft.tools.gs.enums.GoogleDocumentsVisibility;
+import org.hoshisoft.tools.gs.events.RowChange;
+import org.hoshisoft.tools.gs.events.WorksheetChangeListener;
+import org.hoshisoft.tools.gs.events.WorksheetSnapshot;
 
 import org.hoshisoft.tools.gs.formatters.*;
-
+import org.hoshisoft.tools.gs.query.Query;
+import org.hoshisoft.tools.gs.table.TypedWorksheet;
+import org.hoshisoft.tools.gs.table.WorksheetSchema;
+import org.hoshisoft.tools.gs.transport.AsyncHttpTransport;
+import org.hoshisoft.tools.gs.transport.FeedTransport;
+import org.hoshisoft.tools.gs.transport.GDataTransport;
+import org.hoshisoft.tools.gs.transport.TransportConfig;
+import org.hoshisoft.tools.gs.transport.TransportMetrics;
+import org.hoshisoft.tools.gs.transport.TunedGDataRequest;
+
+import com.google.gdata.client.spreadsheet.SpreadsheetQuery;
 import com.google.gdata.client.spreadsheet.SpreadsheetService;
 import com.google.gdata.data.PlainTextConstruct;
 import com.google.gdata.data.spreadsheet.ListEntry;
@@ -42,6 +68,7 @@ import com.google.gdata.data.spreadsheet.SpreadsheetFeed;
 import com.google.gdata.data.spreadsheet.WorksheetEntry;
 import com.google.gdata.data.spreadsheet.WorksheetFeed;
 import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.ResourceNotFoundException;
 import com.google.gdata.util.ServiceException;
 
 public class GoogleSpreadsheet {
@@ -57,17 +84,81 @@ public class GoogleSpreadsheet {
     public static final String ROWS_FEED_ULR =
             "https://spreadsheets.google.com/feeds/list";
 
+    /**
+     * Spreadsheet keys by user and title, shared by instances authorized with
+     * a username and created without a key.
+     */
+    private static final SpreadsheetKeyIndex SPREADSHEET_KEYS =
+            new SpreadsheetKeyIndex();
+
     private String username;
     private String password;
-    private String key;
+    private volatile String key;
     private String title;
     private String visibility;
     private String projection;
 
-    private Map<String, List<ListEntry>> data;
+    private WorksheetCache data;
+
+    /**
+     * Worksheet loads in flight, so that concurrent loads of the same 
+     * worksheet result in a single download. Loads are never shared between
+     * instances, which may be authorized differently.
+     */
+    private final SingleFlight<String, List<ListEntry>> worksheetLoads =
+            new SingleFlight<String, List<ListEntry>>();
+
+    private final Map<String, WorksheetAppender> appenders =
+            new HashMap<String, WorksheetAppender>();
+
+    private final List<WorksheetChangeListener> changeListeners =
+            new CopyOnWriteArrayList<WorksheetChangeListener>();
+
+    /**
+     * Snapshots of loaded worksheets by worksheet key, kept only while there
+     * are change listeners and dropped with worksheets evicted from the cache.
+     */
+    private final Map<String, WorksheetSnapshot> snapshots =
+            new HashMap<String, WorksheetSnapshot>();
+
+    private final WorksheetEvictionListener snapshotEviction =
+            new WorksheetEvictionListener() {
+                @Override
+                public void worksheetEvicted(final String key) {
+                    synchronized (snapshots) {
+                        snapshots.remove(key);
+                    }
+                }
+            };
+
+    private TransportConfig transportConfig;
+    private TransportMetrics transportMetrics;
+    private FeedTransport transport;
+    private volatile Executor loadExecutor;
 
+    /**
+     * Spreadsheet keys by title used by this instance, <code>null</code> 
+     * until needed.
+     */
+    private SpreadsheetKeyIndex spreadsheetKeys;
+
+    /**
+     * Returns titles of all loaded worksheets, including those evicted from
+     * the worksheet cache, which are reloaded on next access.
+     * 
+     * @return titles of loaded worksheets
+     */
     public Set<String> getLoadedWorksheetTitles() {
-        return data.keySet();
+        final String prefix = worksheetKey("");
+
+        final Set<String> titles = new HashSet<String>();
+        for (String key : data.getKeys()) {
+            if (key.startsWith(prefix)) {
+                titles.add(key.substring(prefix.length()));
+            }
+        }
+
+        return titles;
     }
     
     /**
@@ -101,7 +192,10 @@ public class GoogleSpreadsheet {
         this.visibility = visibility.value();
         this.projection = projection.value();
 
-        this.data = new HashMap<String, List<ListEntry>>();
+        this.data = new WorksheetCache();
+
+        this.transportConfig = new TransportConfig();
+        this.transportMetrics = new TransportMetrics();
     }
     
     /**
@@ -130,6 +224,8 @@ public class GoogleSpreadsheet {
 
     /**
      * Adds new worksheet spacified by <code>workSheetName</code> and dimensions.
+     * If instance was created without a key, the spreadsheet is found by its 
+     * title, see {@link #resolveKey()}.
      * 
      * @param workSheetName
      *            title of the worksheet
@@ -142,6 +238,11 @@ public class GoogleSpreadsheet {
      * @throws MalformedURLException
      * @throws IOException
      * @throws ServiceException
+     * @throws ResourceNotFoundException
+     *             if instance was created without a key and there is no 
+     *             spreadsheet with its title
+     * @throws IllegalStateException
+     *             if several spreadsheets have this title
      */
     public void addWorksheet(
             final String workSheetName,
@@ -153,40 +254,58 @@ public class GoogleSpreadsheet {
             IOException,
             ServiceException {
 
-        // Create and initialize service.
-        final SpreadsheetService service = initializeService();
+        final FeedTransport transport = openTransport();
+
+        final String spreadsheetKey = resolveKey(transport);
+        if (spreadsheetKey == null) {
+            throw new ResourceNotFoundException(
+                "No spreadsheet is titled " + this.title);
+        }
 
         // Define the URL to request.
-        final URL spreadSheetURL =
+        final URL worksheetFeedUrl =
                 createSpreadsheetURL(
-                    SPREADSHEET_FEED_URL,
-                    null, // No key needed
+                    WORKSHEET_FEED_URL,
+                    spreadsheetKey,
                     this.visibility,
                     this.projection);
 
-        // Make a request to the API and get all spreadsheets.
-        final SpreadsheetFeed feed =
-                service.getFeed(spreadSheetURL, SpreadsheetFeed.class);
+        // Create a local representation of the new worksheet.
+        final WorksheetEntry worksheet = new WorksheetEntry(colCount, rowCount);
+        worksheet.setTitle(new PlainTextConstruct(workSheetName));
 
-        final List<SpreadsheetEntry> spreadsheets = feed.getEntries();
-        if (!spreadsheets.isEmpty()) {
-            // Choose a spreadsheet based on a title.
-            for (SpreadsheetEntry spreadsheet : spreadsheets) {
-                if (!StringUtils.equals(spreadsheet.getTitle().getPlainText(), this.title)) {
-                    continue;
-                }
+        // Send the local representation of the worksheet to the API for
+        // creation. The URL to use here is the worksheet feed URL of
+        // our spreadsheet.
+        await(transport.insert(worksheetFeedUrl, worksheet));
+    }
 
-                // Create a local representation of the new worksheet.
-                final WorksheetEntry worksheet = new WorksheetEntry(colCount, rowCount);
-                worksheet.setTitle(new PlainTextConstruct(workSheetName));
-                
-                // Send the local representation of the worksheet to the API for
-                // creation. The URL to use here is the worksheet feed URL of
-                // our spreadsheet.
-                final URL worksheetFeedUrl = spreadsheet.getWorksheetFeedUrl();
-                service.insert(worksheetFeedUrl, worksheet);
-            }
+    
+    /**
+     * Returns key of this spreadsheet. If instance was created without a key,
+     * the key is resolved from spreadsheet title.
+     * 
+     * @return spreadsheet key, or <code>null</code> if there is no spreadsheet
+     *         with this title
+     * 
+     * @throws AuthenticationException
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws ServiceException
+     * @throws IllegalStateException
+     *             if several spreadsheets have this title
+     */
+    public String resolveKey()
+            throws AuthenticationException,
+            MalformedURLException,
+            IOException,
+            ServiceException {
+
+        if (this.key != null) {
+            return this.key;
         }
+
+        return resolveKey(openTransport());
     }
 
     
@@ -208,49 +327,100 @@ public class GoogleSpreadsheet {
             ServiceException {
 
         // Check if we have already loaded entries for input worksheet title.
-        if (data.get(worksheetTitle) != null) {
+        if (data.get(worksheetKey(worksheetTitle)) != null) {
             return;
         }
 
-        // Create and initialize service.
-        final SpreadsheetService service = initializeService();
-
-        // Define the URL to request.
-        final URL URL_FEED_REQUEST =
-                createSpreadsheetURL(
-                    WORKSHEET_FEED_URL,
-                    this.key,
-                    this.visibility,
-                    this.projection);
+        fetchWorksheet(worksheetTitle, false);
+    }
 
-        // Make a request to the API and get all worksheets.
-        final WorksheetFeed feed =
-                service.getFeed(URL_FEED_REQUEST, WorksheetFeed.class);
 
-        if (feed != null) {
-            final List<WorksheetEntry> worksheets = feed.getEntries();
+    /**
+     * Loads worksheet specified with <code>worksheetTitle</code>, even if it 
+     * is already loaded. Registered change listeners are notified of rows 
+     * changed since previous load.
+     * 
+     * @param worksheetTitle
+     *            worksheet title to be reloaded
+     * 
+     * @throws AuthenticationException
+     * @throws MalformedURLException
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public void reloadWorksheet(final String worksheetTitle)
+            throws AuthenticationException,
+            MalformedURLException,
+            IOException,
+            ServiceException {
 
-            if (worksheets.size() > 0) {
-                for (WorksheetEntry worksheet : worksheets) {
-                    // Loop and find the one matching input title.
-                    if (worksheet.getTitle().getPlainText().equals(worksheetTitle)) {
-                        final URL listFeedUrl = worksheet.getListFeedUrl();
+        fetchWorksheet(worksheetTitle, true);
+    }
 
-                        final ListFeed listFeed =
-                                service.getFeed(listFeedUrl, ListFeed.class);
 
-                        if (listFeed != null) {
-                            this.data.put(worksheetTitle, listFeed.getEntries());
+    /**
+     * Downloads worksheet specified with <code>worksheetTitle</code>.
+     * 
+     * @param worksheetTitle
+     * @param reload
+     *            <code>false</code> to skip the download if the worksheet is 
+     *            already loaded
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private void fetchWorksheet(final String worksheetTitle, final boolean reload)
+            throws IOException, ServiceException {
+
+        loadCoalesced(worksheetTitle, reload, new Callable<List<ListEntry>>() {
+            @Override
+            public List<ListEntry> call() throws IOException, ServiceException {
+                final FeedTransport transport = openTransport();
+
+                // Define the URL to request.
+                final URL URL_FEED_REQUEST =
+                        createSpreadsheetURL(
+                            WORKSHEET_FEED_URL,
+                            key,
+                            visibility,
+                            projection);
+
+                // Make a request to the API and get all worksheets.
+                final WorksheetFeed feed =
+                        await(transport.getFeed(URL_FEED_REQUEST, WorksheetFeed.class));
+
+                if (feed != null) {
+                    // Loop and find the one matching input title.
+                    for (WorksheetEntry worksheet : feed.getEntries()) {
+                        if (worksheet.getTitle().getPlainText().equals(worksheetTitle)) {
+                            final ListFeed listFeed =
+                                    await(transport.getFeed(
+                                        worksheet.getListFeedUrl(),
+                                        ListFeed.class));
+
+                            if (listFeed != null) {
+                                return listFeed.getEntries();
+                            }
                         }
                     }
                 }
+
+                return null;
             }
-        }
+        });
     }
 
     
     /**
-     * Loads all worksheets of this spreadsheet.
+     * Loads all worksheets of this spreadsheet, each as it would be by 
+     * {@link #reloadWorksheet(String)}, so that a worksheet already being 
+     * loaded is not downloaded twice. 
+     * 
+     * Requests of the worksheets are started one after another and awaited 
+     * together, so that a non-blocking transport has all of them in flight 
+     * at once without holding a thread for any. Worksheets of requests 
+     * completed as they are started, as by the default transport, are stored
+     * right away, one by one. With a load executor set, worksheets are 
+     * loaded by its threads instead.
      * 
      * @throws AuthenticationException
      * @throws MalformedURLException
@@ -263,8 +433,7 @@ public class GoogleSpreadsheet {
             IOException,
             ServiceException {
 
-        // Create and initialize service.
-        final SpreadsheetService service = initializeService();
+        final FeedTransport transport = openTransport();
 
         // Define the URL to request.
         final URL URL_FEED_REQUEST =
@@ -276,26 +445,145 @@ public class GoogleSpreadsheet {
 
         // Make a request to the API and get all worksheets.
         final WorksheetFeed feed =
-                service.getFeed(URL_FEED_REQUEST, WorksheetFeed.class);
+                await(transport.getFeed(URL_FEED_REQUEST, WorksheetFeed.class));
 
-        if (feed != null) {
-            final List<WorksheetEntry> worksheets = feed.getEntries();
+        if (feed == null || feed.getEntries().isEmpty()) {
+            return;
+        }
 
-            if (!worksheets.isEmpty()) {
-                // Loop and load all worksheets.
-                for (WorksheetEntry worksheet : worksheets) {
-                    final URL listFeedUrl = worksheet.getListFeedUrl();
+        final Executor executor = this.loadExecutor;
+        if (executor != null) {
+            loadAll(executor, transport, feed.getEntries());
+            return;
+        }
 
-                    final ListFeed listFeed =
-                            service.getFeed(listFeedUrl, ListFeed.class);
+        // Start requests of all worksheets, each within its load.
+        final List<SingleFlight<String, List<ListEntry>>.Flight> pending =
+                new ArrayList<SingleFlight<String, List<ListEntry>>.Flight>();
 
-                    if (listFeed != null) {
-                        this.data.put(
-                            worksheet.getTitle().getPlainText(),
-                            listFeed.getEntries());
-                    }
+        Exception failure = null;
+
+        for (WorksheetEntry worksheet : feed.getEntries()) {
+            final String worksheetTitle = worksheet.getTitle().getPlainText();
+            final ListFeedLoad load = new ListFeedLoad(transport, worksheet);
+
+            final SingleFlight<String, List<ListEntry>>.Flight flight =
+                    worksheetLoads.join(
+                        worksheetKey(worksheetTitle),
+                        storingLoad(worksheetTitle, true, load));
+
+            if (!flight.isLeader()) {
+                pending.add(flight);
+                continue;
+            }
+
+            // Flight must be run even if its request could not be started.
+            if (failure == null) {
+                try {
+                    load.start();
+                } catch (RuntimeException e) {
+                    failure = e;
                 }
             }
+
+            if (load.isDone()) {
+                failure = complete(flight, worksheetTitle, failure);
+            } else {
+                pending.add(flight);
+            }
+        }
+
+        // Wait for all of them, so that no flight is left unfinished.
+        for (SingleFlight<String, List<ListEntry>>.Flight flight : pending) {
+            failure = complete(flight, null, failure);
+        }
+
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+    }
+
+    /**
+     * Loads <code>worksheets</code> with <code>executor</code>, waiting for 
+     * all of them.
+     */
+    private void loadAll(
+            final Executor executor,
+            final FeedTransport transport,
+            final List<WorksheetEntry> worksheets)
+    throws IOException, ServiceException {
+
+        final List<FutureTask<Void>> loads =
+                new ArrayList<FutureTask<Void>>(worksheets.size());
+
+        for (final WorksheetEntry worksheet : worksheets) {
+            final FutureTask<Void> load = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, ServiceException {
+                    loadCoalesced(
+                        worksheet.getTitle().getPlainText(),
+                        true,
+                        new ListFeedLoad(transport, worksheet));
+
+                    return null;
+                }
+            });
+
+            executor.execute(load);
+            loads.add(load);
+        }
+
+        // Wait for all of them, failing with the first failed one.
+        Exception failure = null;
+        for (FutureTask<Void> load : loads) {
+            try {
+                await(load);
+            } catch (IOException e) {
+                failure = failure != null ? failure : e;
+            } catch (ServiceException e) {
+                failure = failure != null ? failure : e;
+            }
+        }
+
+        if (failure != null) {
+            throw rethrow(failure);
+        }
+    }
+
+    /**
+     * Gets result of <code>flight</code>, running it if led by this caller.
+     * 
+     * @param flight
+     * @param worksheetTitle
+     *            title of the worksheet loaded, for messages
+     * @param failure
+     *            first failure so far, <code>null</code> if none
+     * @return first failure, including this one
+     */
+    private static Exception complete(
+            final SingleFlight<String, List<ListEntry>>.Flight flight,
+            final String worksheetTitle,
+            final Exception failure) {
+
+        try {
+            flight.get();
+            return failure;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failure != null
+                    ? failure
+                    : new InterruptedIOException(
+                        "Interrupted while loading worksheet " + worksheetTitle);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+
+            if (failure != null) {
+                return failure;
+            } else if (cause instanceof Exception) {
+                return (Exception) cause;
+            }
+
+            throw (Error) cause;
         }
     }
     
@@ -322,10 +610,13 @@ public class GoogleSpreadsheet {
         }
         
         // First, remove local representation of worskheet data.
-        data.put(worksheetTitle, null);
+        data.remove(worksheetKey(worksheetTitle));
 
-        // Create and initialize service.
-        final SpreadsheetService service = initializeService();
+        synchronized (snapshots) {
+            snapshots.remove(worksheetKey(worksheetTitle));
+        }
+
+        final FeedTransport transport = openTransport();
 
         // Define the URL to request.
         final URL URL_FEED_REQUEST =
@@ -337,7 +628,7 @@ public class GoogleSpreadsheet {
 
         // Make a request to the API and get all worksheets.
         final WorksheetFeed feed =
-                service.getFeed(URL_FEED_REQUEST, WorksheetFeed.class);
+                await(transport.getFeed(URL_FEED_REQUEST, WorksheetFeed.class));
 
         if (feed != null) {
             final List<WorksheetEntry> worksheets = feed.getEntries();
@@ -346,7 +637,9 @@ public class GoogleSpreadsheet {
                 // Loop and find the one matching input title.
                 for (WorksheetEntry worksheet : worksheets) {
                     if (worksheet.getTitle().getPlainText().equals(worksheetTitle)) {
-                        worksheet.delete();
+                        await(transport.delete(
+                            new URL(worksheet.getEditLink().getHref()),
+                            worksheet.getEtag()));
                     }
                 }
             }
@@ -371,47 +664,118 @@ public class GoogleSpreadsheet {
             return;
         }
 
-        // Create and initialize service.
-        final SpreadsheetService service = initializeService();
+        final FeedTransport transport = openTransport();
 
-        // Define the URL to request.
-        final URL URL_FEED_REQUEST =
-                createSpreadsheetURL(
-                    GoogleSpreadsheet.WORKSHEET_FEED_URL,
-                    this.key,
-                    this.visibility,
-                    this.projection);
+        final URL listFeedUrl = findListFeedUrl(transport, worksheetTitle);
 
-        // Make a request to the API and get all worksheets.
-        final WorksheetFeed feed =
-                service.getFeed(URL_FEED_REQUEST, WorksheetFeed.class);
+        if (listFeedUrl != null) {
+            // Rows are inserted one by one to keep their order.
+            for (ListEntry entry : entries) {
+                await(transport.insert(listFeedUrl, entry));
 
-        if (feed != null) {
-            final List<WorksheetEntry> worksheets = feed.getEntries();
-    
-            if (!worksheets.isEmpty()) {
-                URL listFeedUrl = null;
-                
-                for (WorksheetEntry worksheet : worksheets) {
-                    if (worksheet.getTitle().getPlainText().equals(worksheetTitle)) {
-                        listFeedUrl = worksheet.getListFeedUrl();
-                        break;
-                    }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    // OK... do nothing...
                 }
-                
-                if (listFeedUrl != null) {
-                    for (ListEntry entry : entries) {
-                        service.insert(listFeedUrl, entry);
-                        
-                        try {
-                            Thread.sleep(1);
-                        } catch (InterruptedException e) {
-                            // OK... do nothing...
-                        }
-                    }
+            }
+        }
+    }
+
+
+    /**
+     * Returns appender writing rows to worksheet <code>worksheetTitle</code> 
+     * in the background. The same appender is returned for the same worksheet
+     * until it is closed.
+     * 
+     * @param worksheetTitle
+     * @return worksheet appender
+     */
+    public WorksheetAppender getAppender(final String worksheetTitle) {
+        synchronized (appenders) {
+            WorksheetAppender appender = appenders.get(worksheetTitle);
+
+            if (appender == null || appender.isClosed()) {
+                appender = createAppender(
+                    worksheetTitle,
+                    WorksheetAppender.DEFAULT_CAPACITY,
+                    WorksheetAppender.DEFAULT_BATCH_SIZE,
+                    WorksheetAppender.DEFAULT_FLUSH_INTERVAL);
+
+                appenders.put(worksheetTitle, appender);
+            }
+
+            return appender;
+        }
+    }
+
+
+    /**
+     * Creates new appender writing rows to worksheet 
+     * <code>worksheetTitle</code> in the background. Caller is responsible 
+     * for closing it.
+     * 
+     * @param worksheetTitle
+     * @param capacity
+     *            maximum number of queued rows
+     * @param batchSize
+     *            number of rows written in one batch
+     * @param flushInterval
+     *            milliseconds a row may wait for its batch to fill
+     * @return worksheet appender
+     */
+    public WorksheetAppender createAppender(
+            final String worksheetTitle,
+            final int capacity,
+            final int batchSize,
+            final long flushInterval) {
+
+        return new WorksheetAppender(
+            this,
+            worksheetTitle,
+            capacity,
+            batchSize,
+            flushInterval);
+    }
+
+
+    /**
+     * Closes all appenders returned by {@link #getAppender(String)}, writing
+     * their queued rows.
+     * 
+     * @throws IOException
+     * @throws ServiceException
+     *             first failure, after all appenders are closed
+     */
+    public void closeAppenders() throws IOException, ServiceException {
+        final List<WorksheetAppender> closing;
+        synchronized (appenders) {
+            closing = new ArrayList<WorksheetAppender>(appenders.values());
+            appenders.clear();
+        }
+
+        IOException ioFailure = null;
+        ServiceException serviceFailure = null;
+
+        for (WorksheetAppender appender : closing) {
+            try {
+                appender.close();
+            } catch (IOException e) {
+                if (ioFailure == null && serviceFailure == null) {
+                    ioFailure = e;
+                }
+            } catch (ServiceException e) {
+                if (ioFailure == null && serviceFailure == null) {
+                    serviceFailure = e;
                 }
             }
         }
+
+        if (ioFailure != null) {
+            throw ioFailure;
+        } else if (serviceFailure != null) {
+            throw serviceFailure;
+        }
     }
     
     
@@ -485,13 +849,235 @@ public class GoogleSpreadsheet {
     
 
     /**
-     * Returns list of ListEntry objects for a input worksheetTitle.
+     * Returns list of ListEntry objects for a input worksheetTitle. Worksheets
+     * evicted from the worksheet cache are transparently reloaded.
      * 
      * @param worksheetTitle
      * @return
+     * @throws IllegalStateException
+     *             if reloading an evicted worksheet failed
      */
     public List<ListEntry> getEntries(final String worksheetTitle) {
-        return data.get(worksheetTitle);
+        final String key = worksheetKey(worksheetTitle);
+
+        final List<ListEntry> entries = data.get(key);
+        if (entries != null || !data.isEvicted(key)) {
+            return entries;
+        }
+
+        try {
+            loadWorksheet(worksheetTitle);
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                "Unable to reload worksheet " + worksheetTitle, e);
+        } catch (ServiceException e) {
+            throw new IllegalStateException(
+                "Unable to reload worksheet " + worksheetTitle, e);
+        }
+
+        return data.get(key);
+    }
+
+    /**
+     * Returns new query over rows of loaded worksheet 
+     * <code>worksheetTitle</code>. Other loaded worksheets may be joined to 
+     * it through {@link #getEntries(String)}.
+     * 
+     * @param worksheetTitle
+     * @return query over worksheet rows
+     * @throws IllegalStateException
+     *             if worksheet is not loaded
+     */
+    public Query query(final String worksheetTitle) {
+        final List<ListEntry> entries = getEntries(worksheetTitle);
+        if (entries == null) {
+            throw new IllegalStateException(
+                "Worksheet " + worksheetTitle + " is not loaded");
+        }
+
+        return new Query(entries);
+    }
+
+    /**
+     * Returns loaded worksheet <code>worksheetTitle</code> decoded into typed 
+     * columns, with types of all columns inferred from their values.
+     * 
+     * @param worksheetTitle
+     * @return decoded worksheet, or <code>null</code> if not loaded
+     */
+    public TypedWorksheet getTypedWorksheet(final String worksheetTitle) {
+        return getTypedWorksheet(worksheetTitle, new WorksheetSchema());
+    }
+
+    /**
+     * Returns loaded worksheet <code>worksheetTitle</code> decoded into typed 
+     * columns, with types declared in <code>schema</code>.
+     * 
+     * @param worksheetTitle
+     * @param schema
+     * @return decoded worksheet, or <code>null</code> if not loaded
+     */
+    public TypedWorksheet getTypedWorksheet(
+            final String worksheetTitle,
+            final WorksheetSchema schema) {
+
+        final List<ListEntry> entries = getEntries(worksheetTitle);
+
+        return entries != null ? TypedWorksheet.decode(entries, schema) : null;
+    }
+
+    /**
+     * Registers <code>listener</code> to be notified of rows changed on every
+     * worksheet load. Worksheets loaded before the first listener was added,
+     * or evicted from the worksheet cache since their last load, report all 
+     * of their rows as added on next load.
+     * 
+     * @param listener
+     */
+    public void addWorksheetChangeListener(final WorksheetChangeListener listener) {
+        synchronized (snapshots) {
+            if (changeListeners.isEmpty()) {
+                data.addEvictionListener(snapshotEviction);
+            }
+
+            changeListeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters <code>listener</code>. Snapshots of loaded worksheets are 
+     * dropped with the last listener.
+     * 
+     * @param listener
+     */
+    public void removeWorksheetChangeListener(final WorksheetChangeListener listener) {
+        synchronized (snapshots) {
+            if (changeListeners.remove(listener) && changeListeners.isEmpty()) {
+                data.removeEvictionListener(snapshotEviction);
+                snapshots.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns HTTP settings used for requests made by this instance. Changes 
+     * apply to requests made after the change.
+     * 
+     * @return transport settings
+     */
+    public TransportConfig getTransportConfig() {
+        return transportConfig;
+    }
+
+    public void setTransportConfig(final TransportConfig transportConfig) {
+        this.transportConfig = transportConfig;
+    }
+
+    /**
+     * Returns counters of responses read by this instance, including 
+     * transferred and decompressed byte counts.
+     * 
+     * @return transport metrics
+     */
+    public TransportMetrics getTransportMetrics() {
+        return transportMetrics;
+    }
+
+    /**
+     * Returns transport set with {@link #setTransport(FeedTransport)}.
+     * 
+     * @return transport, or <code>null</code> if every operation creates its 
+     *         own gdata transport
+     */
+    public FeedTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Replaces transport carrying requests of this instance, including those 
+     * of appenders created afterwards. Caller is responsible for closing it. 
+     * Setting <code>null</code> restores the default, a new 
+     * {@link GDataTransport} for every operation.
+     * 
+     * @param transport
+     */
+    public void setTransport(final FeedTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Returns executor set with {@link #setLoadExecutor(Executor)}.
+     *
+     * @return executor, or <code>null</code> if none
+     */
+    public Executor getLoadExecutor() {
+        return loadExecutor;
+    }
+
+    /**
+     * Sets executor loading worksheets in {@link #loadAllWorksheets()}, to
+     * load them in parallel with a blocking transport. Caller is responsible
+     * for shutting it down. Setting <code>null</code> restores the default,
+     * loading within the calling thread.
+     *
+     * @param loadExecutor
+     */
+    public void setLoadExecutor(final Executor loadExecutor) {
+        this.loadExecutor = loadExecutor;
+    }
+
+    /**
+     * Returns new non-blocking transport, authorized and configured like 
+     * requests of this instance, to be set with 
+     * {@link #setTransport(FeedTransport)}. Caller is responsible for 
+     * closing it. Requires the optional httpasyncclient dependency.
+     * 
+     * @return non-blocking transport
+     * @throws AuthenticationException
+     */
+    public AsyncHttpTransport createAsyncTransport() 
+            throws AuthenticationException {
+
+        final SpreadsheetService service = initializeService();
+
+        final AsyncHttpTransport asyncTransport =
+                new AsyncHttpTransport(
+                    service,
+                    this.transportConfig,
+                    this.transportMetrics);
+        asyncTransport.setHeader("User-Agent", userAgent(service));
+
+        return asyncTransport;
+    }
+
+    /**
+     * Returns cache holding loaded worksheets, through which memory budget 
+     * is configured and eviction and reload counters are read.
+     * 
+     * @return worksheet cache
+     */
+    public WorksheetCache getWorksheetCache() {
+        return data;
+    }
+
+    /**
+     * Replaces cache holding loaded worksheets. The same cache may be set on 
+     * several instances so that they share one memory budget. Worksheets 
+     * loaded into the previous cache are not carried over.
+     * 
+     * @param cache
+     */
+    public void setWorksheetCache(final WorksheetCache cache) {
+        synchronized (snapshots) {
+            if (!changeListeners.isEmpty()) {
+                this.data.removeEvictionListener(snapshotEviction);
+                cache.addEvictionListener(snapshotEviction);
+            }
+
+            snapshots.clear();
+
+            this.data = cache;
+        }
     }
 
     public String getUsername() {
@@ -514,6 +1100,57 @@ public class GoogleSpreadsheet {
         return projection;
     }
 
+    /**
+     * Returns number of worksheet loads of this instance that were served by
+     * an identical load already in flight.
+     * 
+     * @return number of coalesced worksheet loads
+     */
+    public long getCoalescedLoadCount() {
+        return worksheetLoads.getCoalescedCount();
+    }
+
+    /**
+     * Returns index of spreadsheet keys by title, shared by all instances 
+     * authorized with a username.
+     * 
+     * @return spreadsheet key index
+     */
+    public static SpreadsheetKeyIndex getSpreadsheetKeyIndex() {
+        return SPREADSHEET_KEYS;
+    }
+
+    /**
+     * Sets index of spreadsheet keys by title used by this instance. Allows
+     * instances authorized otherwise than with a username, e.g. subclasses
+     * overriding {@link #authorize(SpreadsheetService)}, to share 
+     * resolutions of the same account. By default, such instances use an 
+     * index of their own, and instances with a username use the index 
+     * returned by {@link #getSpreadsheetKeyIndex()}.
+     * 
+     * @param spreadsheetKeys
+     */
+    public synchronized void setSpreadsheetKeyIndex(
+            final SpreadsheetKeyIndex spreadsheetKeys) {
+
+        this.spreadsheetKeys = spreadsheetKeys;
+    }
+
+    /**
+     * Returns index of spreadsheet keys by title used by this instance.
+     */
+    private synchronized SpreadsheetKeyIndex spreadsheetKeys() {
+        if (this.spreadsheetKeys == null) {
+            // Resolutions of unnamed users must not be shared, they may be
+            // authorized as different accounts.
+            this.spreadsheetKeys = this.username != null
+                    ? SPREADSHEET_KEYS
+                    : new SpreadsheetKeyIndex();
+        }
+
+        return this.spreadsheetKeys;
+    }
+
     public static final char URL_PATH_SEPARATOR = '/';
     
     /**
@@ -548,6 +1185,303 @@ public class GoogleSpreadsheet {
     }
 
     
+    /**
+     * Returns list feed URL of worksheet <code>worksheetTitle</code>.
+     * 
+     * @param transport
+     * @param worksheetTitle
+     * @return list feed URL, or <code>null</code> if there is no such worksheet
+     * @throws IOException
+     * @throws ServiceException
+     */
+    URL findListFeedUrl(
+            final FeedTransport transport,
+            final String worksheetTitle)
+    throws IOException, ServiceException {
+
+        // Define the URL to request.
+        final URL URL_FEED_REQUEST =
+                createSpreadsheetURL(
+                    WORKSHEET_FEED_URL,
+                    this.key,
+                    this.visibility,
+                    this.projection);
+
+        // Make a request to the API and get all worksheets.
+        final WorksheetFeed feed =
+                await(transport.getFeed(URL_FEED_REQUEST, WorksheetFeed.class));
+
+        if (feed != null) {
+            for (WorksheetEntry worksheet : feed.getEntries()) {
+                if (worksheet.getTitle().getPlainText().equals(worksheetTitle)) {
+                    return worksheet.getListFeedUrl();
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Returns key of this spreadsheet, resolving it from spreadsheet title 
+     * through the spreadsheet key index if not known. Unresolved titles are 
+     * looked up with an exact title query, so only matching spreadsheets are 
+     * downloaded.
+     * 
+     * @param transport
+     * @return spreadsheet key, or <code>null</code> if there is no spreadsheet
+     *         with this title
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private String resolveKey(final FeedTransport transport)
+            throws IOException, ServiceException {
+
+        if (this.key != null) {
+            return this.key;
+        }
+
+        final SpreadsheetKeyIndex index = spreadsheetKeys();
+
+        List<String> keys = index.get(this.username, this.title);
+        if (keys == null) {
+            final SpreadsheetQuery query =
+                    new SpreadsheetQuery(
+                        createSpreadsheetURL(
+                            SPREADSHEET_FEED_URL,
+                            null, // No key needed
+                            this.visibility,
+                            this.projection));
+            query.setTitleQuery(this.title);
+            query.setTitleExact(true);
+
+            final SpreadsheetFeed feed =
+                    await(transport.query(query, SpreadsheetFeed.class));
+
+            keys = new ArrayList<String>();
+            if (feed != null) {
+                for (SpreadsheetEntry spreadsheet : feed.getEntries()) {
+                    if (StringUtils.equals(spreadsheet.getTitle().getPlainText(), this.title)) {
+                        keys.add(spreadsheet.getKey());
+                    }
+                }
+            }
+
+            index.put(this.username, this.title, keys);
+        }
+
+        if (keys.isEmpty()) {
+            return null;
+        } else if (keys.size() > 1) {
+            throw new IllegalStateException(
+                "Several spreadsheets are titled " + this.title + ": " + keys);
+        }
+
+        // Key is set once, concurrent resolutions keep the first one.
+        synchronized (this) {
+            if (this.key == null) {
+                this.key = keys.get(0);
+            }
+
+            return this.key;
+        }
+    }
+
+
+    /**
+     * Runs <code>load</code> for worksheet <code>worksheetTitle</code>, 
+     * sharing it with any concurrent load of the same worksheet.
+     * 
+     * @param worksheetTitle
+     * @param reload
+     *            <code>false</code> to skip the load if the worksheet was 
+     *            stored meanwhile
+     * @param load
+     * @throws IOException
+     * @throws ServiceException
+     * @see #storingLoad(String, boolean, Callable)
+     */
+    private void loadCoalesced(
+            final String worksheetTitle,
+            final boolean reload,
+            final Callable<List<ListEntry>> load)
+    throws IOException, ServiceException {
+
+        try {
+            worksheetLoads.execute(
+                worksheetKey(worksheetTitle),
+                storingLoad(worksheetTitle, reload, load));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "Interrupted while loading worksheet " + worksheetTitle);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+
+    /**
+     * Returns <code>load</code> of worksheet <code>worksheetTitle</code> 
+     * storing the loaded entries and publishing their changes. Run as a
+     * shared load, only the caller running it stores and publishes, before
+     * other callers are released, so that they neither repeat that work nor
+     * overwrite entries of a later load.
+     * 
+     * @param worksheetTitle
+     * @param reload
+     *            <code>false</code> to skip the load if the worksheet was 
+     *            stored meanwhile
+     * @param load
+     * @return storing load
+     */
+    private Callable<List<ListEntry>> storingLoad(
+            final String worksheetTitle,
+            final boolean reload,
+            final Callable<List<ListEntry>> load) {
+
+        final String worksheetKey = worksheetKey(worksheetTitle);
+
+        return new Callable<List<ListEntry>>() {
+            @Override
+            public List<ListEntry> call() throws Exception {
+                if (!reload) {
+                    // Previous load may have completed since the caller checked.
+                    final List<ListEntry> cached = data.get(worksheetKey);
+                    if (cached != null) {
+                        return cached;
+                    }
+                }
+
+                final List<ListEntry> entries = load.call();
+
+                if (entries != null) {
+                    data.put(worksheetKey, entries);
+
+                    publishChanges(worksheetTitle, entries);
+                }
+
+                return entries;
+            }
+        };
+    }
+
+
+    /**
+     * Load of the list feed of a worksheet, whose request may be started 
+     * before the load is run.
+     */
+    private static class ListFeedLoad implements Callable<List<ListEntry>> {
+        private final FeedTransport transport;
+        private final WorksheetEntry worksheet;
+
+        private Future<ListFeed> request;
+
+        private ListFeedLoad(
+                final FeedTransport transport,
+                final WorksheetEntry worksheet) {
+
+            this.transport = transport;
+            this.worksheet = worksheet;
+        }
+
+        /**
+         * Starts the request, unless started already.
+         */
+        private synchronized void start() {
+            if (request == null) {
+                request = transport.getFeed(worksheet.getListFeedUrl(), ListFeed.class);
+            }
+        }
+
+        private synchronized boolean isDone() {
+            return request != null && request.isDone();
+        }
+
+        @Override
+        public List<ListEntry> call() throws IOException, ServiceException {
+            start();
+
+            final ListFeed listFeed = await(request);
+
+            return listFeed != null ? listFeed.getEntries() : null;
+        }
+    }
+
+
+    /**
+     * Notifies change listeners of rows of worksheet 
+     * <code>worksheetTitle</code> changed since its previous load. Snapshots 
+     * are taken only while there are listeners. A listener that throws does 
+     * not keep others from being notified, its exception is passed to the 
+     * uncaught exception handler of the current thread.
+     * 
+     * @param worksheetTitle
+     * @param entries
+     *            newly loaded entries
+     */
+    private void publishChanges(
+            final String worksheetTitle,
+            final List<ListEntry> entries) {
+
+        if (changeListeners.isEmpty()) {
+            return;
+        }
+
+        final String worksheetKey = worksheetKey(worksheetTitle);
+        final WorksheetSnapshot snapshot = WorksheetSnapshot.of(entries);
+        final List<RowChange> changes;
+
+        synchronized (snapshots) {
+            // Last listener may have been removed meanwhile.
+            if (changeListeners.isEmpty()) {
+                return;
+            }
+
+            changes = snapshot.changesSince(
+                snapshots.put(worksheetKey, snapshot),
+                entries);
+
+            // Worksheet may have been evicted before its snapshot was stored.
+            if (data.isEvicted(worksheetKey)) {
+                snapshots.remove(worksheetKey);
+            }
+        }
+
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        for (WorksheetChangeListener listener : changeListeners) {
+            try {
+                listener.worksheetChanged(worksheetTitle, changes);
+            } catch (RuntimeException e) {
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+
+    /**
+     * Returns key identifying worksheet <code>worksheetTitle</code> among 
+     * worksheets of all instances, as seen through this instance's feed and 
+     * credentials.
+     * 
+     * @param worksheetTitle
+     * @return worksheet key
+     */
+    private String worksheetKey(final String worksheetTitle) {
+        return WORKSHEET_FEED_URL
+                + URL_PATH_SEPARATOR + this.key
+                + URL_PATH_SEPARATOR + this.visibility
+                + URL_PATH_SEPARATOR + this.projection
+                + URL_PATH_SEPARATOR + this.username
+                + URL_PATH_SEPARATOR + worksheetTitle;
+    }
+
+
     /**
      * Returns object of class SpreadsheetService with authorization rules set. 
      * Default is username / password authorization. Should be overriden in subclasses.
@@ -573,20 +1507,107 @@ public class GoogleSpreadsheet {
      * @return newwly created object of class SpreadsheetService and autorization set.
      * @throws AuthenticationException
      */
-    private SpreadsheetService initializeService() 
+    SpreadsheetService initializeService() 
             throws AuthenticationException {
 
+        final String applicationName = this.getClass().getName();
+
         final SpreadsheetService service =
-                new SpreadsheetService(this.getClass().getName());
+                new SpreadsheetService(applicationName);
 
         // Setting protocol version to newest (version 3).
         service.setProtocolVersion(SpreadsheetService.Versions.V3);
 
+        // Replacing request factory, so it has to be done before authorization.
+        final TunedGDataRequest.Factory requestFactory =
+                new TunedGDataRequest.Factory(
+                    this.transportConfig,
+                    this.transportMetrics);
+        requestFactory.setHeader("User-Agent", userAgent(service));
+
+        service.setRequestFactory(requestFactory);
+        service.setConnectTimeout(this.transportConfig.getConnectTimeout());
+        service.setReadTimeout(this.transportConfig.getReadTimeout());
+
         // Setting stuff needed for authorization.
         this.authorize(service);
         
         return service;
     }
+
+
+    /**
+     * Returns transport set on this instance, or new gdata transport if none
+     * is set.
+     * 
+     * @return transport
+     * @throws AuthenticationException
+     */
+    FeedTransport openTransport() throws AuthenticationException {
+        final FeedTransport current = this.transport;
+
+        return current != null
+                ? current
+                : new GDataTransport(initializeService());
+    }
+
+
+    /**
+     * Waits for result of <code>request</code>.
+     * 
+     * @param request
+     * @return result of request
+     * @throws IOException
+     * @throws ServiceException
+     */
+    static <T> T await(final Future<T> request)
+            throws IOException, ServiceException {
+
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while awaiting request");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+
+    /**
+     * Throws <code>cause</code> of a failed request as it was thrown by the
+     * request, wrapped in ServiceException if it is a checked exception of 
+     * any other type.
+     * 
+     * @param cause
+     * @return never returns, declared so that callers can throw it
+     * @throws IOException
+     * @throws ServiceException
+     */
+    private static ServiceException rethrow(final Throwable cause)
+            throws IOException, ServiceException {
+
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof ServiceException) {
+            throw (ServiceException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        return new ServiceException(cause);
+    }
+
+
+    /**
+     * Returns User-Agent header value of requests made through 
+     * <code>service</code>.
+     */
+    private String userAgent(final SpreadsheetService service) {
+        return this.getClass().getName() + " " + service.getServiceVersion();
+    }
     
 //    public void printAllWorksheets(File dir) throws FileNotFoundException {
 //        for (Map.Entry<String, List<ListEntry>> entries : data.entrySet()) {
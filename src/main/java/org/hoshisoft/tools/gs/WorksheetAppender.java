@@ -0,0 +1,644 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hoshisoft.tools.gs.transport.FeedTransport;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+
+/**
+ * Appends rows to a worksheet in the background. Rows are queued without
+ * waiting for the API and written by a single writer thread in batches, once
+ * a batch is full or its oldest row has waited for the flush interval. When
+ * the queue is full, producers block until the writer catches up.
+ *
+ * A batch failed for a transient reason is kept at the head of the queue and
+ * retried after a delay, starting at the flush interval and doubling with
+ * every further failure up to {@link #MAX_RETRY_DELAY}. Rows are still
+ * accepted while retrying, until the queue is full. {@link #flush()}, which
+ * retries at once, reports the failure if the retry fails again.
+ *
+ * A row refused by the API for good, such as an invalid entry, is dropped
+ * instead of being retried and counted as rejected, see
+ * {@link #getRejectedCount()}.
+ */
+public class WorksheetAppender {
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final long MAX_RETRY_DELAY = 60000;
+
+    /** Status of a throttled request, not defined by HttpURLConnection. */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /** Shortest delay before retrying, even with no flush interval. */
+    private static final long MIN_RETRY_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final GoogleSpreadsheet spreadsheet;
+    private final String worksheetTitle;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+
+    private final ReentrantLock lock;
+    private final Condition notFull;
+    private final Condition workAvailable;
+    private final Condition written;
+
+    private final ArrayDeque<ListEntry> pending;
+    private final Thread writer;
+
+    // Guarded by lock.
+    private long pendingSince;
+    private long appendedCount;
+    private long writtenCount;
+    private long rejectedCount;
+    private ServiceException rejection;
+    private long flushTarget;
+    private long batchCount;
+    private long totalBatchNanos;
+    private long maxBatchNanos;
+    private Exception failure;
+    private long failureCount;
+    private long retryDelayNanos;
+    private long retryAt;
+    private boolean closed;
+    private boolean stopped;
+
+    // Used by writer thread only.
+    private FeedTransport transport;
+    private URL listFeedUrl;
+
+    /**
+     * Creates new instance of class WorksheetAppender and starts its writer
+     * thread.
+     *
+     * @param spreadsheet
+     *            spreadsheet to append to
+     * @param worksheetTitle
+     *            title of the worksheet to append to
+     * @param capacity
+     *            maximum number of queued rows
+     * @param batchSize
+     *            number of rows written in one batch
+     * @param flushInterval
+     *            milliseconds a row may wait for its batch to fill
+     */
+    WorksheetAppender(
+            final GoogleSpreadsheet spreadsheet,
+            final String worksheetTitle,
+            final int capacity,
+            final int batchSize,
+            final long flushInterval) {
+
+        if (capacity < 1 || batchSize < 1 || flushInterval < 0) {
+            throw new IllegalArgumentException(
+                "capacity: " + capacity
+                + ", batchSize: " + batchSize
+                + ", flushInterval: " + flushInterval);
+        }
+
+        this.spreadsheet = spreadsheet;
+        this.worksheetTitle = worksheetTitle;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+        this.workAvailable = lock.newCondition();
+        this.written = lock.newCondition();
+
+        this.pending = new ArrayDeque<ListEntry>(Math.min(capacity, 1024));
+
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "WorksheetAppender-" + worksheetTitle);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues <code>row</code> to be appended, waiting for space in the queue
+     * if it is full.
+     *
+     * @param row
+     * @throws InterruptedException
+     * @throws IllegalStateException
+     *             if appender is closed
+     */
+    public void append(final ListEntry row) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            checkWritable();
+
+            while (pending.size() >= capacity) {
+                notFull.await();
+                checkWritable();
+            }
+
+            enqueue(row);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues <code>row</code> to be appended, waiting at most
+     * <code>timeout</code> for space in the queue if it is full.
+     *
+     * @param row
+     * @param timeout
+     * @param unit
+     * @return <code>true</code> if queued, <code>false</code> if timed out
+     * @throws InterruptedException
+     * @throws IllegalStateException
+     *             if appender is closed
+     */
+    public boolean offer(
+            final ListEntry row,
+            final long timeout,
+            final TimeUnit unit)
+    throws InterruptedException {
+
+        long nanos = unit.toNanos(timeout);
+
+        lock.lockInterruptibly();
+        try {
+            checkWritable();
+
+            while (pending.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                nanos = notFull.awaitNanos(nanos);
+                checkWritable();
+            }
+
+            enqueue(row);
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all rows queued before this call, waiting until they are
+     * appended to the worksheet or rejected. After a failure, rows are 
+     * retried at once.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     *             if rows could not be written, they stay queued and are
+     *             retried later
+     */
+    public void flush() throws IOException, ServiceException {
+        lock.lock();
+        try {
+            final long target = appendedCount;
+            final long failures = failureCount;
+
+            // Retry now instead of waiting for the retry delay.
+            if (failure != null) {
+                retryAt = System.nanoTime();
+            }
+
+            if (target > flushTarget) {
+                flushTarget = target;
+            }
+            workAvailable.signal();
+
+            while (writtenCount + rejectedCount < target) {
+                if (failure != null && failureCount != failures) {
+                    rethrow(failure);
+                }
+
+                if (stopped) {
+                    throw new IOException(
+                        "Appender of worksheet " + worksheetTitle + " is stopped");
+                }
+
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                        "Interrupted while flushing worksheet " + worksheetTitle);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes all queued rows and stops the writer thread. Rows can not be
+     * appended after close.
+     *
+     * @throws IOException
+     * @throws ServiceException
+     *             if queued rows could not be written, they are lost
+     */
+    public void close() throws IOException, ServiceException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            flush();
+        } finally {
+            lock.lock();
+            try {
+                stopped = true;
+                workAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public String getWorksheetTitle() {
+        return worksheetTitle;
+    }
+
+    /**
+     * Returns failure of the last write, or <code>null</code> if it
+     * succeeded.
+     */
+    public Exception getFailure() {
+        lock.lock();
+        try {
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns number of failed writes, not counting rejected rows.
+     */
+    public long getFailureCount() {
+        lock.lock();
+        try {
+            return failureCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns number of rows refused by the API and dropped.
+     */
+    public long getRejectedCount() {
+        lock.lock();
+        try {
+            return rejectedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns reason the last rejected row was refused, or <code>null</code>
+     * if no row was rejected.
+     */
+    public ServiceException getLastRejection() {
+        lock.lock();
+        try {
+            return rejection;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns number of rows queued and not yet written.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAppendedCount() {
+        lock.lock();
+        try {
+            return appendedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWrittenCount() {
+        lock.lock();
+        try {
+            return writtenCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns number of batches written.
+     */
+    public long getBatchCount() {
+        lock.lock();
+        try {
+            return batchCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns average time, in milliseconds, spent writing a batch.
+     */
+    public double getAverageBatchLatency() {
+        lock.lock();
+        try {
+            return batchCount > 0 ? totalBatchNanos / 1e6 / batchCount : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns longest time, in milliseconds, spent writing a batch.
+     */
+    public double getMaxBatchLatency() {
+        lock.lock();
+        try {
+            return maxBatchNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(final ListEntry row) {
+        if (pending.isEmpty()) {
+            pendingSince = System.nanoTime();
+        }
+
+        pending.addLast(row);
+        appendedCount++;
+
+        if (pending.size() == 1 || pending.size() >= batchSize) {
+            workAvailable.signal();
+        }
+    }
+
+    private void checkWritable() {
+        if (closed) {
+            throw new IllegalStateException(
+                "Appender of worksheet " + worksheetTitle + " is closed");
+        }
+    }
+
+    private void writeLoop() {
+        final List<ListEntry> batch = new ArrayList<ListEntry>(batchSize);
+
+        lock.lock();
+        try {
+            while (true) {
+                if (!awaitBatch()) {
+                    return;
+                }
+
+                while (batch.size() < batchSize && !pending.isEmpty()) {
+                    batch.add(pending.pollFirst());
+                }
+                pendingSince = System.nanoTime();
+                notFull.signalAll();
+
+                lock.unlock();
+
+                final long start = System.nanoTime();
+                Exception error = null;
+                try {
+                    write(batch);
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                }
+
+                if (error == null) {
+                    final long nanos = System.nanoTime() - start;
+
+                    batchCount++;
+                    totalBatchNanos += nanos;
+                    maxBatchNanos = Math.max(maxBatchNanos, nanos);
+
+                    failure = null;
+                    retryDelayNanos = 0;
+                } else {
+                    // Keep unwritten rows in order for retry.
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        pending.addFirst(batch.get(i));
+                    }
+
+                    failure = error;
+                    failureCount++;
+
+                    retryDelayNanos = retryDelayNanos == 0
+                            ? Math.max(flushIntervalNanos, MIN_RETRY_DELAY_NANOS)
+                            : Math.min(
+                                retryDelayNanos * 2,
+                                TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_DELAY));
+                    retryAt = System.nanoTime() + retryDelayNanos;
+                }
+
+                batch.clear();
+                written.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a batch should be written: it is full, its oldest row has
+     * waited for the flush interval, or a flush is requested. After a
+     * failure, waits until the retry delay has passed or a flush is
+     * requested.
+     *
+     * @return <code>false</code> if writer should stop
+     */
+    private boolean awaitBatch() {
+        while (true) {
+            if (stopped) {
+                return false;
+            }
+
+            if (pending.isEmpty()) {
+                workAvailable.awaitUninterruptibly();
+                continue;
+            }
+
+            final long now = System.nanoTime();
+            final long wait;
+
+            if (failure != null) {
+                wait = retryAt - now;
+            } else {
+                final boolean flushing = flushTarget > writtenCount || closed;
+                final boolean full = pending.size() >= batchSize;
+
+                wait = flushing || full ? 0 : flushIntervalNanos - (now - pendingSince);
+            }
+
+            if (wait <= 0) {
+                return true;
+            }
+
+            try {
+                workAvailable.awaitNanos(wait);
+            } catch (InterruptedException e) {
+                stopped = true;
+                written.signalAll();
+            }
+        }
+    }
+
+    private void write(final List<ListEntry> batch)
+            throws IOException, ServiceException {
+
+        if (transport == null) {
+            transport = spreadsheet.openTransport();
+        }
+
+        if (listFeedUrl == null) {
+            listFeedUrl = spreadsheet.findListFeedUrl(transport, worksheetTitle);
+
+            if (listFeedUrl == null) {
+                throw new ServiceException("No such worksheet: " + worksheetTitle);
+            }
+        }
+
+        while (!batch.isEmpty()) {
+            ServiceException rejected = null;
+            try {
+                GoogleSpreadsheet.await(transport.insert(listFeedUrl, batch.get(0)));
+            } catch (ResourceNotFoundException e) {
+                // Worksheet is gone, find it again on retry.
+                listFeedUrl = null;
+                throw e;
+            } catch (ServiceException e) {
+                if (!isRejection(e)) {
+                    throw e;
+                }
+
+                rejected = e;
+            }
+
+            // Written and rejected rows must not be retried.
+            batch.remove(0);
+
+            lock.lock();
+            try {
+                if (rejected == null) {
+                    writtenCount++;
+                } else {
+                    rejectedCount++;
+                    rejection = rejected;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if <code>e</code> refuses the row for good,
+     * so that retrying it can not succeed: a client error other than 
+     * authentication, which may be renewed, a missing worksheet, which may be
+     * created, timeout or throttling.
+     */
+    static boolean isRejection(final ServiceException e) {
+        if (e instanceof InvalidEntryException) {
+            return true;
+        }
+
+        final int status = e.getHttpErrorCodeOverride();
+
+        return status >= 400
+                && status < 500
+                && status != HttpURLConnection.HTTP_UNAUTHORIZED
+                && status != HttpURLConnection.HTTP_NOT_FOUND
+                && status != HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                && status != TOO_MANY_REQUESTS;
+    }
+
+    private static void rethrow(final Exception e)
+            throws IOException, ServiceException {
+
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof ServiceException) {
+            throw (ServiceException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+
+        throw new ServiceException(e);
+    }
+}
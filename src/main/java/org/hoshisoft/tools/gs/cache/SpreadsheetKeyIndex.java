@@ -0,0 +1,211 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Maps spreadsheet titles to spreadsheet keys, per user, as titles are only
+ * unique within one account. Titles are resolved one at a time and every
+ * resolution expires after a maximum age, so the index is refreshed
+ * incrementally, title by title, instead of by reading the whole spreadsheet
+ * feed. Expired resolutions are dropped. Titles of no spreadsheet are not
+ * held, so that a spreadsheet is found as soon as it is created.
+ *
+ * Users are told apart by name only, so an index must not be shared by
+ * instances authorized otherwise than with a username.
+ */
+public class SpreadsheetKeyIndex {
+    public static final long DEFAULT_MAX_AGE = 10 * 60 * 1000L;
+
+    private final Map<Title, Resolution> resolutions;
+
+    private long maxAge;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Creates new instance of class SpreadsheetKeyIndex, with resolutions
+     * expiring after {@link #DEFAULT_MAX_AGE}.
+     */
+    public SpreadsheetKeyIndex() {
+        this(DEFAULT_MAX_AGE);
+    }
+
+    /**
+     * Creates new instance of class SpreadsheetKeyIndex.
+     *
+     * @param maxAge
+     *            milliseconds after which a resolution expires
+     */
+    public SpreadsheetKeyIndex(final long maxAge) {
+        this.maxAge = maxAge;
+
+        this.resolutions = new HashMap<Title, Resolution>();
+    }
+
+    /**
+     * Returns keys of spreadsheets of user <code>username</code> titled
+     * <code>title</code>.
+     *
+     * @param username
+     *            user the spreadsheets are visible to, <code>null</code> for
+     *            anonymous access
+     * @param title
+     * @return keys, or <code>null</code> if title was not resolved or has
+     *         expired
+     */
+    public synchronized List<String> get(final String username, final String title) {
+        final Title key = new Title(username, title);
+        final Resolution resolution = resolutions.get(key);
+
+        if (resolution == null || isExpired(resolution, System.currentTimeMillis())) {
+            if (resolution != null) {
+                resolutions.remove(key);
+            }
+
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return resolution.keys;
+    }
+
+    /**
+     * Stores <code>keys</code> of spreadsheets of user <code>username</code>
+     * titled <code>title</code>, dropping expired resolutions. Empty
+     * <code>keys</code> only forget the previous resolution.
+     *
+     * @param username
+     * @param title
+     * @param keys
+     */
+    public synchronized void put(
+            final String username,
+            final String title,
+            final List<String> keys) {
+
+        final long now = System.currentTimeMillis();
+
+        final Iterator<Resolution> it = resolutions.values().iterator();
+        while (it.hasNext()) {
+            if (isExpired(it.next(), now)) {
+                it.remove();
+            }
+        }
+
+        if (keys.isEmpty()) {
+            resolutions.remove(new Title(username, title));
+            return;
+        }
+
+        resolutions.put(
+            new Title(username, title),
+            new Resolution(
+                Collections.unmodifiableList(new ArrayList<String>(keys)),
+                now));
+    }
+
+    /**
+     * Forgets resolution of <code>title</code> for user
+     * <code>username</code>, so that it is resolved again on next use.
+     *
+     * @param username
+     * @param title
+     */
+    public synchronized void invalidate(final String username, final String title) {
+        resolutions.remove(new Title(username, title));
+    }
+
+    /**
+     * Returns number of resolutions held, including expired ones not yet
+     * dropped.
+     */
+    public synchronized int size() {
+        return resolutions.size();
+    }
+
+    public synchronized void clear() {
+        resolutions.clear();
+    }
+
+    public synchronized long getMaxAge() {
+        return maxAge;
+    }
+
+    public synchronized void setMaxAge(final long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private boolean isExpired(final Resolution resolution, final long now) {
+        return now - resolution.resolvedAt > maxAge;
+    }
+
+    private static class Title {
+        private final String username;
+        private final String title;
+
+        private Title(final String username, final String title) {
+            this.username = username;
+            this.title = title;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Title)) {
+                return false;
+            }
+
+            final Title other = (Title) o;
+
+            return StringUtils.equals(username, other.username)
+                    && StringUtils.equals(title, other.title);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (username != null ? username.hashCode() : 0)
+                    + (title != null ? title.hashCode() : 0);
+        }
+    }
+
+    private static class Resolution {
+        private final List<String> keys;
+        private final long resolvedAt;
+
+        private Resolution(final List<String> keys, final long resolvedAt) {
+            this.keys = keys;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Holds loaded worksheet entries within a byte budget. When the budget is
+ * exceeded, least recently used worksheets are evicted. Evicted keys are
+ * remembered so that owners can reload them on next access, up to a limit
+ * beyond which the keys evicted longest ago are forgotten.
+ *
+ * A single cache may be shared by several spreadsheets, as long as their keys
+ * do not collide.
+ */
+public class WorksheetCache {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** Default number of evicted keys remembered. */
+    public static final int DEFAULT_MAX_EVICTED_KEYS = 1024;
+
+    /** Rough estimate of fixed heap cost of a single ListEntry. */
+    protected static final long ENTRY_OVERHEAD = 1024;
+
+    /** Rough estimate of fixed heap cost of a single cell of a ListEntry. */
+    protected static final long CELL_OVERHEAD = 96;
+
+    private final LinkedHashMap<String, Slot> resident;
+    private final Set<String> evicted;
+    private final int maxEvictedKeys;
+    private final List<WorksheetEvictionListener> evictionListeners;
+
+    private long maxBytes;
+    private long bytes;
+    private long evictionCount;
+    private long reloadCount;
+
+    /**
+     * Creates new instance of class WorksheetCache without a byte budget.
+     */
+    public WorksheetCache() {
+        this(UNLIMITED);
+    }
+
+    /**
+     * Creates new instance of class WorksheetCache.
+     *
+     * @param maxBytes
+     *            estimated number of bytes the cached worksheets may take
+     */
+    public WorksheetCache(final long maxBytes) {
+        this(maxBytes, DEFAULT_MAX_EVICTED_KEYS);
+    }
+
+    /**
+     * Creates new instance of class WorksheetCache.
+     *
+     * @param maxBytes
+     *            estimated number of bytes the cached worksheets may take
+     * @param maxEvictedKeys
+     *            number of evicted keys remembered
+     */
+    public WorksheetCache(final long maxBytes, final int maxEvictedKeys) {
+        if (maxEvictedKeys < 0) {
+            throw new IllegalArgumentException("maxEvictedKeys: " + maxEvictedKeys);
+        }
+
+        this.maxBytes = maxBytes;
+        this.maxEvictedKeys = maxEvictedKeys;
+
+        this.resident = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+        this.evicted = new LinkedHashSet<String>();
+        this.evictionListeners = new CopyOnWriteArrayList<WorksheetEvictionListener>();
+    }
+
+    /**
+     * Returns entries stored under <code>key</code>, marking them as most
+     * recently used.
+     *
+     * @param key
+     * @return entries, or <code>null</code> if not resident
+     */
+    public synchronized List<ListEntry> get(final String key) {
+        final Slot slot = resident.get(key);
+
+        return slot != null ? slot.entries : null;
+    }
+
+    /**
+     * Stores <code>entries</code> under <code>key</code>, evicting least
+     * recently used worksheets if the budget is exceeded. Size of entries is
+     * estimated before the cache is locked, so that readers are not held up
+     * by large worksheets being stored.
+     *
+     * @param key
+     * @param entries
+     */
+    public void put(final String key, final List<ListEntry> entries) {
+        final Slot slot = new Slot(entries, estimateSize(entries));
+        final List<String> evictedKeys;
+
+        synchronized (this) {
+            if (evicted.remove(key)) {
+                reloadCount++;
+            }
+
+            final Slot previous = resident.put(key, slot);
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+            bytes += slot.size;
+
+            evictedKeys = evict();
+        }
+
+        notifyEvicted(evictedKeys);
+    }
+
+    /**
+     * Removes <code>key</code> from the cache. The key is forgotten, it will
+     * not be reported as evicted.
+     *
+     * @param key
+     */
+    public synchronized void remove(final String key) {
+        final Slot slot = resident.remove(key);
+        if (slot != null) {
+            bytes -= slot.size;
+        }
+
+        evicted.remove(key);
+    }
+
+    /**
+     * Returns <code>true</code> if <code>key</code> was evicted and has not
+     * been stored since, unless it was forgotten since.
+     *
+     * @param key
+     * @return <code>true</code> if <code>key</code> was evicted
+     */
+    public synchronized boolean isEvicted(final String key) {
+        return evicted.contains(key);
+    }
+
+    /**
+     * Returns all keys known to this cache, resident or evicted and not yet
+     * forgotten.
+     *
+     * @return copy of known keys
+     */
+    public synchronized Set<String> getKeys() {
+        final Set<String> keys = new HashSet<String>(resident.keySet());
+        keys.addAll(evicted);
+
+        return keys;
+    }
+
+    /**
+     * Sets the byte budget, evicting worksheets if it is already exceeded.
+     *
+     * @param maxBytes
+     */
+    public void setMaxBytes(final long maxBytes) {
+        final List<String> evictedKeys;
+
+        synchronized (this) {
+            this.maxBytes = maxBytes;
+
+            evictedKeys = evict();
+        }
+
+        notifyEvicted(evictedKeys);
+    }
+
+    public void addEvictionListener(final WorksheetEvictionListener listener) {
+        evictionListeners.add(listener);
+    }
+
+    public void removeEvictionListener(final WorksheetEvictionListener listener) {
+        evictionListeners.remove(listener);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns estimated number of bytes taken by resident worksheets.
+     *
+     * @return estimated size in bytes
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getReloadCount() {
+        return reloadCount;
+    }
+
+    /**
+     * Returns estimated heap size of <code>entries</code>. Default estimate
+     * counts characters of every tag and value plus fixed per entry and per
+     * cell overheads. Should be overriden in subclasses if more precision is
+     * needed. Called without holding the lock of this cache.
+     *
+     * @param entries
+     * @return estimated size in bytes
+     */
+    protected long estimateSize(final List<ListEntry> entries) {
+        long size = 0;
+
+        for (ListEntry entry : entries) {
+            size += ENTRY_OVERHEAD;
+
+            final CustomElementCollection elements = entry.getCustomElements();
+            for (String tag : elements.getTags()) {
+                final String value = elements.getValue(tag);
+
+                size += CELL_OVERHEAD + 2L * tag.length();
+                if (value != null) {
+                    size += 2L * value.length();
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Evicts least recently used worksheets until the budget is met. The most
+     * recently used worksheet is always kept, even if it alone exceeds the
+     * budget. Keys evicted longest ago are forgotten when there are more than
+     * the limit.
+     *
+     * @return evicted keys
+     */
+    private List<String> evict() {
+        if (bytes <= maxBytes) {
+            return Collections.emptyList();
+        }
+
+        final List<String> evictedKeys = new ArrayList<String>();
+        final Iterator<Map.Entry<String, Slot>> it =
+                resident.entrySet().iterator();
+
+        while (bytes > maxBytes && resident.size() > 1) {
+            final Map.Entry<String, Slot> eldest = it.next();
+
+            bytes -= eldest.getValue().size;
+            evicted.add(eldest.getKey());
+            evictedKeys.add(eldest.getKey());
+            evictionCount++;
+
+            it.remove();
+        }
+
+        // Evicted keys are kept in order of eviction.
+        final Iterator<String> oldest = evicted.iterator();
+        while (evicted.size() > maxEvictedKeys) {
+            oldest.next();
+            oldest.remove();
+        }
+
+        return evictedKeys;
+    }
+
+    private void notifyEvicted(final List<String> evictedKeys) {
+        for (String key : evictedKeys) {
+            for (WorksheetEvictionListener listener : evictionListeners) {
+                listener.worksheetEvicted(key);
+            }
+        }
+    }
+
+    private static class Slot {
+        private final List<ListEntry> entries;
+        private final long size;
+
+        private Slot(final List<ListEntry> entries, final long size) {
+            this.entries = entries;
+            this.size = size;
+        }
+    }
+}
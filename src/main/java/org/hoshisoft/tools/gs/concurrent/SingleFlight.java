@@ -0,0 +1,152 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses concurrent calls for the same key into a single execution. The
+ * first caller for a key runs the call, every caller arriving while it is
+ * still in flight waits for it and receives the same result or failure.
+ *
+ * @param <K> call key
+ * @param <V> call result
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, FutureTask<V>> inFlight;
+    private final AtomicLong coalesced;
+
+    /**
+     * Creates new instance of class SingleFlight.
+     */
+    public SingleFlight() {
+        this.inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+        this.coalesced = new AtomicLong();
+    }
+
+    /**
+     * Executes <code>call</code> unless a call for the same <code>key</code>
+     * is already in flight, in which case waits for that one instead.
+     *
+     * @param key
+     *            identifies calls that may be shared
+     * @param call
+     *            the work to be done
+     * @return result of the (possibly shared) call
+     * @throws ExecutionException
+     *             if the call failed; the cause is the original exception
+     * @throws InterruptedException
+     *             if interrupted while waiting for a shared call
+     */
+    public V execute(final K key, final Callable<V> call)
+            throws ExecutionException, InterruptedException {
+
+        return join(key, call).get();
+    }
+
+    /**
+     * Joins the call for <code>key</code> already in flight, or makes
+     * <code>call</code> the one in flight, without running it yet. This
+     * lets the caller leading the call start work that the call completes,
+     * such as a non-blocking request, and run several calls afterwards.
+     * The leader must get the result of its flight, as that runs the call
+     * other callers wait for.
+     *
+     * @param key
+     *            identifies calls that may be shared
+     * @param call
+     *            the work to be done
+     * @return flight of the (possibly shared) call
+     */
+    public Flight join(final K key, final Callable<V> call) {
+        final FutureTask<V> task = new FutureTask<V>(call);
+
+        final FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return new Flight(key, existing, false);
+        }
+
+        return new Flight(key, task, true);
+    }
+
+    /**
+     * Returns number of calls that were served by another call in flight.
+     *
+     * @return number of coalesced calls
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns number of calls currently in flight.
+     *
+     * @return number of calls in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * A caller's part in a call, either leading it or waiting for it.
+     */
+    public final class Flight {
+        private final K key;
+        private final FutureTask<V> task;
+        private final boolean leader;
+
+        private Flight(final K key, final FutureTask<V> task, final boolean leader) {
+            this.key = key;
+            this.task = task;
+            this.leader = leader;
+        }
+
+        /**
+         * Returns <code>true</code> if the call is run by this caller.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * Runs the call if this caller leads it, otherwise waits for it.
+         *
+         * @return result of the call
+         * @throws ExecutionException
+         *             if the call failed; the cause is the original exception
+         * @throws InterruptedException
+         *             if interrupted while waiting for a shared call
+         */
+        public V get() throws ExecutionException, InterruptedException {
+            if (leader) {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(key, task);
+                }
+            }
+
+            return task.get();
+        }
+    }
+}
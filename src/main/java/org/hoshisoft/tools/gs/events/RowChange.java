@@ -0,0 +1,76 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.events;
+
+import java.util.Set;
+
+import org.hoshisoft.tools.gs.enums.RowChangeType;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Change of a single worksheet row, identified by its entry id.
+ */
+public class RowChange {
+    private final RowChangeType type;
+    private final String id;
+    private final ListEntry entry;
+    private final Set<String> changedColumns;
+
+    RowChange(
+            final RowChangeType type,
+            final String id,
+            final ListEntry entry,
+            final Set<String> changedColumns) {
+
+        this.type = type;
+        this.id = id;
+        this.entry = entry;
+        this.changedColumns = changedColumns;
+    }
+
+    public RowChangeType getType() {
+        return type;
+    }
+
+    /**
+     * Returns entry id of the changed row.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns current entry of the row, <code>null</code> if it was removed.
+     */
+    public ListEntry getEntry() {
+        return entry;
+    }
+
+    /**
+     * Returns columns whose values changed. For added and removed rows these
+     * are all columns of the row.
+     */
+    public Set<String> getChangedColumns() {
+        return changedColumns;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + id + " " + changedColumns;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.events;
+
+import java.util.List;
+
+/**
+ * Receives row changes of worksheets, computed every time a worksheet is
+ * loaded. The first load of a worksheet reports all of its rows as added.
+ */
+public interface WorksheetChangeListener {
+
+    /**
+     * Called after worksheet <code>worksheetTitle</code> was loaded and
+     * found changed since its previous load.
+     *
+     * @param worksheetTitle
+     *            title of the changed worksheet
+     * @param changes
+     *            added and modified rows in worksheet order, followed by
+     *            removed rows
+     */
+    void worksheetChanged(String worksheetTitle, List<RowChange> changes);
+}
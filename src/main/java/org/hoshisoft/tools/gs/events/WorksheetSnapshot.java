@@ -0,0 +1,209 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.events;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hoshisoft.tools.gs.enums.RowChangeType;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Content hashes of worksheet rows, keyed by entry id. Only hashes are kept,
+ * so a snapshot is much smaller than the entries it was taken of. Comparing
+ * two snapshots finds added, removed and modified rows, and the columns that
+ * changed in them.
+ */
+public class WorksheetSnapshot {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Hash of a missing value, distinct from hash of an empty one. */
+    private static final long MISSING = 0;
+
+    private final String[] columns;
+    private final Map<String, long[]> rows;
+
+    private WorksheetSnapshot(final String[] columns, final Map<String, long[]> rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    /**
+     * Takes snapshot of <code>entries</code>. For each row, the hash of the
+     * whole row is followed by the hash of every column.
+     *
+     * @param entries
+     * @return snapshot
+     */
+    public static WorksheetSnapshot of(final List<ListEntry> entries) {
+        final String[] columns = entries.isEmpty()
+                ? new String[0]
+                : entries.get(0).getCustomElements().getTags().toArray(new String[0]);
+
+        final Map<String, long[]> rows =
+                new HashMap<String, long[]>(entries.size() * 2);
+
+        for (ListEntry entry : entries) {
+            final CustomElementCollection elements = entry.getCustomElements();
+            final long[] hashes = new long[columns.length + 1];
+
+            long rowHash = FNV_OFFSET;
+            for (int i = 0; i < columns.length; i++) {
+                hashes[i + 1] = hash(elements.getValue(columns[i]));
+                rowHash = (rowHash ^ hashes[i + 1]) * FNV_PRIME;
+            }
+            hashes[0] = rowHash;
+
+            rows.put(entry.getId(), hashes);
+        }
+
+        return new WorksheetSnapshot(columns, rows);
+    }
+
+    /**
+     * Returns changes from <code>previous</code> snapshot to this one, taken
+     * of <code>entries</code>. Rows whose hash did not change are skipped
+     * without looking at their columns.
+     *
+     * @param previous
+     *            snapshot of previous load, <code>null</code> if none
+     * @param entries
+     *            entries this snapshot was taken of
+     * @return changes, empty if none
+     */
+    public List<RowChange> changesSince(
+            final WorksheetSnapshot previous,
+            final List<ListEntry> entries) {
+
+        final List<RowChange> changes = new ArrayList<RowChange>();
+
+        final Set<String> allColumns = columnSet(columns);
+        final boolean sameColumns =
+                previous != null && Arrays.equals(previous.columns, columns);
+
+        // Position of every column in previous snapshot, -1 if new.
+        final int[] previousPositions = new int[columns.length];
+        final Map<String, Integer> gone = new HashMap<String, Integer>();
+        if (previous != null) {
+            for (int i = 0; i < previous.columns.length; i++) {
+                gone.put(previous.columns[i], i);
+            }
+            for (int i = 0; i < columns.length; i++) {
+                final Integer j = gone.remove(columns[i]);
+                previousPositions[i] = j != null ? j : -1;
+            }
+        }
+
+        for (ListEntry entry : entries) {
+            final String id = entry.getId();
+            final long[] current = rows.get(id);
+            final long[] old = previous != null ? previous.rows.get(id) : null;
+
+            if (old == null) {
+                changes.add(
+                    new RowChange(RowChangeType.ADDED, id, entry, allColumns));
+            } else if (!sameColumns || old[0] != current[0]) {
+                final Set<String> changed =
+                        changedColumns(previousPositions, gone, old, current);
+
+                if (!changed.isEmpty()) {
+                    changes.add(
+                        new RowChange(
+                            RowChangeType.MODIFIED,
+                            id,
+                            entry,
+                            Collections.unmodifiableSet(changed)));
+                }
+            }
+        }
+
+        if (previous != null) {
+            final Set<String> previousColumns = columnSet(previous.columns);
+
+            for (String id : previous.rows.keySet()) {
+                if (!rows.containsKey(id)) {
+                    changes.add(
+                        new RowChange(RowChangeType.REMOVED, id, null, previousColumns));
+                }
+            }
+        }
+
+        return changes;
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    private Set<String> changedColumns(
+            final int[] previousPositions,
+            final Map<String, Integer> gone,
+            final long[] old,
+            final long[] current) {
+
+        final Set<String> changed = new LinkedHashSet<String>();
+
+        for (int i = 0; i < columns.length; i++) {
+            final int j = previousPositions[i];
+            final long oldHash = j >= 0 ? old[j + 1] : MISSING;
+
+            if (current[i + 1] != oldHash) {
+                changed.add(columns[i]);
+            }
+        }
+
+        // Columns that are gone changed if they had a value.
+        for (Map.Entry<String, Integer> column : gone.entrySet()) {
+            if (old[column.getValue() + 1] != MISSING) {
+                changed.add(column.getKey());
+            }
+        }
+
+        return changed;
+    }
+
+    private static Set<String> columnSet(final String[] columns) {
+        return Collections.unmodifiableSet(
+            new LinkedHashSet<String>(Arrays.asList(columns)));
+    }
+
+    /**
+     * Returns 64 bit FNV-1a hash of <code>value</code>, never equal to
+     * {@link #MISSING} for present values.
+     */
+    private static long hash(final String value) {
+        if (value == null) {
+            return MISSING;
+        }
+
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+
+        return hash != MISSING ? hash : 1;
+    }
+}
@@ -48,4 +48,25 @@ public abstract class GSOutputFormatter {
 
         return sb.toString();
     }
+
+    /**
+     * Formats column names or values in the given order, without creating
+     * an entry for them.
+     */
+    public String format(Iterable<String> fields) {
+        StringBuilder sb = new StringBuilder();
+
+        boolean isFirst = true;
+        for (String field : fields) {
+            if (!isFirst) {
+                sb.append(separator);
+            } else {
+                isFirst = false;
+            }
+
+            sb.append(field);
+        }
+
+        return sb.toString();
+    }
 }
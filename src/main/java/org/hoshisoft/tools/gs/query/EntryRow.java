@@ -0,0 +1,45 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.query;
+
+import java.util.Set;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Row viewing a worksheet entry.
+ */
+class EntryRow implements Row {
+    private final ListEntry entry;
+
+    EntryRow(final ListEntry entry) {
+        this.entry = entry;
+    }
+
+    @Override
+    public String getValue(final String column) {
+        return entry.getCustomElements().getValue(column);
+    }
+
+    @Override
+    public Set<String> getColumns() {
+        return entry.getCustomElements().getTags();
+    }
+
+    ListEntry getEntry() {
+        return entry;
+    }
+}
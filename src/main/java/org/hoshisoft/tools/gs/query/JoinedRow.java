@@ -0,0 +1,135 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.query;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Row joined from two rows. Holds all columns of the left row followed by
+ * columns of the right row, named with a prefix prepended; right columns with
+ * names already present in the left row are left out.
+ */
+class JoinedRow implements Row {
+    private final Row left;
+    private final Row right;
+    private final Layout layout;
+
+    JoinedRow(final Row left, final Row right, final Layout layout) {
+        this.left = left;
+        this.right = right;
+        this.layout = layout;
+    }
+
+    @Override
+    public String getValue(final String column) {
+        final String value = left.getValue(column);
+        if (value != null || !column.startsWith(layout.rightPrefix)) {
+            return value;
+        }
+
+        return left.getColumns().contains(column)
+                ? null
+                : right.getValue(column.substring(layout.rightPrefix.length()));
+    }
+
+    @Override
+    public Set<String> getColumns() {
+        return layout.columns(left.getColumns(), right.getColumns());
+    }
+
+    /**
+     * Columns of rows of one join. Rows of a worksheet mostly have the same
+     * columns, so the joined column set is built once and reused while left
+     * and right columns stay the same. Shared by join tasks running in
+     * parallel.
+     */
+    static class Layout {
+        private final String rightPrefix;
+        private volatile Columns last;
+
+        Layout(final String rightPrefix) {
+            this.rightPrefix = rightPrefix;
+        }
+
+        private Set<String> columns(final Set<String> left, final Set<String> right) {
+            final Columns cached = last;
+            if (cached != null && cached.matches(left, right)) {
+                return cached.joined;
+            }
+
+            final Set<String> joined = new LinkedHashSet<String>(left);
+            for (String column : right) {
+                joined.add(rightPrefix + column);
+            }
+
+            final Columns columns = new Columns(
+                new ArrayList<String>(left),
+                new ArrayList<String>(right),
+                Collections.unmodifiableSet(joined));
+            last = columns;
+
+            return columns.joined;
+        }
+    }
+
+    private static class Columns {
+        private final List<String> left;
+        private final List<String> right;
+        private final Set<String> joined;
+
+        private Columns(
+                final List<String> left,
+                final List<String> right,
+                final Set<String> joined) {
+
+            this.left = left;
+            this.right = right;
+            this.joined = joined;
+        }
+
+        private boolean matches(final Set<String> left, final Set<String> right) {
+            return sameOrder(this.left, left) && sameOrder(this.right, right);
+        }
+
+        /**
+         * Returns whether <code>columns</code> are <code>expected</code>, in
+         * the same order.
+         */
+        private static boolean sameOrder(
+                final List<String> expected,
+                final Set<String> columns) {
+
+            if (expected.size() != columns.size()) {
+                return false;
+            }
+
+            final Iterator<String> it = columns.iterator();
+            for (String column : expected) {
+                if (!column.equals(it.next())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Applies a {@link RowMapper} to a range of rows, splitting it in halves
+ * until ranges are small enough to be mapped sequentially. Results keep the
+ * order of input rows.
+ */
+class MapTask extends RecursiveTask<List<Row>> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Row> rows;
+    private final RowMapper mapper;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    MapTask(
+            final List<Row> rows,
+            final RowMapper mapper,
+            final int from,
+            final int to,
+            final int threshold) {
+
+        this.rows = rows;
+        this.mapper = mapper;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected List<Row> compute() {
+        if (to - from <= threshold) {
+            final List<Row> out = new ArrayList<Row>(to - from);
+            for (int i = from; i < to; i++) {
+                mapper.map(rows.get(i), out);
+            }
+
+            return out;
+        }
+
+        final int middle = (from + to) >>> 1;
+
+        final MapTask left = new MapTask(rows, mapper, from, middle, threshold);
+        left.fork();
+
+        final List<Row> right =
+                new MapTask(rows, mapper, middle, to, threshold).compute();
+
+        final List<Row> out = left.join();
+        out.addAll(right);
+
+        return out;
+    }
+}
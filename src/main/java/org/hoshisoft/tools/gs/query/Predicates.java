@@ -0,0 +1,167 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.query;
+
+import org.apache.commons.lang3.StringUtils;
+import org.hoshisoft.tools.gs.table.WorksheetSchema;
+
+/**
+ * Commonly used row predicates. Numeric predicates never match rows whose
+ * value is missing or not a number, and read values formatted by
+ * spreadsheets, such as "$1,000" or "45%".
+ */
+public final class Predicates {
+
+    private Predicates() {
+    }
+
+    /**
+     * Returns predicate matching rows whose <code>column</code> equals
+     * <code>value</code>.
+     */
+    public static RowPredicate equalTo(final String column, final String value) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                return StringUtils.equals(valueOf(row, column), value);
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching rows whose <code>column</code> contains
+     * <code>text</code>.
+     */
+    public static RowPredicate contains(final String column, final String text) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                return StringUtils.contains(valueOf(row, column), text);
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching rows whose <code>column</code> is missing or
+     * blank.
+     */
+    public static RowPredicate isBlank(final String column) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                return StringUtils.isBlank(valueOf(row, column));
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching rows whose <code>column</code> is a number
+     * greater than <code>value</code>.
+     */
+    public static RowPredicate greaterThan(final String column, final double value) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                return numberOf(row, column) > value;
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching rows whose <code>column</code> is a number
+     * less than <code>value</code>.
+     */
+    public static RowPredicate lessThan(final String column, final double value) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                return numberOf(row, column) < value;
+            }
+        };
+    }
+
+    /**
+     * Returns predicate matching rows whose <code>column</code> is a number
+     * between <code>min</code> and <code>max</code>, inclusive.
+     */
+    public static RowPredicate between(
+            final String column,
+            final double min,
+            final double max) {
+
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                final double number = numberOf(row, column);
+
+                return number >= min && number <= max;
+            }
+        };
+    }
+
+    public static RowPredicate and(final RowPredicate... predicates) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                for (RowPredicate predicate : predicates) {
+                    if (!predicate.matches(row)) {
+                        return false;
+                    }
+                }
+
+                return true;
+            }
+        };
+    }
+
+    public static RowPredicate or(final RowPredicate... predicates) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                for (RowPredicate predicate : predicates) {
+                    if (predicate.matches(row)) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public static RowPredicate not(final RowPredicate predicate) {
+        return new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                return !predicate.matches(row);
+            }
+        };
+    }
+
+    static String valueOf(final Row row, final String column) {
+        return row.getValue(column);
+    }
+
+    /**
+     * Returns value of <code>column</code> as a number, NaN if missing or not
+     * a number. Numbers are recognized as formatted by spreadsheets, see
+     * {@link WorksheetSchema#parseNumber(String)}.
+     */
+    static double numberOf(final Row row, final String column) {
+        return WorksheetSchema.parseNumber(valueOf(row, column));
+    }
+}
@@ -0,0 +1,526 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.query;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.hoshisoft.tools.gs.concurrent.SharedForkJoinPool;
+import org.hoshisoft.tools.gs.formatters.GSOutputFormatter;
+
+import com.google.gdata.data.spreadsheet.CustomElementCollection;
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Query over loaded worksheet rows. Filters and joins are applied in the
+ * order they were added, followed by sort, limit and projection. Stages over
+ * large inputs run in parallel on a fork/join pool, keeping row order.
+ *
+ * Joins are inner hash joins: rows of the joined worksheet are indexed by
+ * their join column once, then every input row looks up its matches.
+ *
+ * Stages work on {@link Row} views of the entries, so entries are created
+ * only for result rows that are not entries of the queried worksheets.
+ * Input entries are never modified.
+ */
+public class Query {
+    /** Number of rows below which a stage runs sequentially. */
+    public static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    private final List<ListEntry> source;
+    private final List<Stage> stages;
+
+    private String orderColumn;
+    private boolean ascending;
+    private int limit = -1;
+    private String[] columns;
+
+    /**
+     * Creates new instance of class Query over <code>rows</code>.
+     *
+     * @param rows
+     *            rows to query, not modified by the query
+     */
+    public Query(final List<ListEntry> rows) {
+        this.source = rows;
+        this.stages = new ArrayList<Stage>();
+    }
+
+    /**
+     * Keeps only rows matching <code>predicate</code>.
+     *
+     * @param predicate
+     * @return this query
+     */
+    public Query where(final RowPredicate predicate) {
+        final RowMapper filter = new RowMapper() {
+            @Override
+            public void map(final Row row, final List<Row> out) {
+                if (predicate.matches(row)) {
+                    out.add(row);
+                }
+            }
+        };
+
+        stages.add(new Stage() {
+            @Override
+            public RowMapper prepare() {
+                return filter;
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * Joins rows with <code>right</code> rows whose <code>rightColumn</code>
+     * equals their <code>leftColumn</code>. Joined rows hold all columns of
+     * the row followed by columns of the matching right row; right columns
+     * with names already present are left out.
+     *
+     * @param right
+     * @param leftColumn
+     * @param rightColumn
+     * @return this query
+     */
+    public Query join(
+            final List<ListEntry> right,
+            final String leftColumn,
+            final String rightColumn) {
+
+        return join(right, leftColumn, rightColumn, "");
+    }
+
+    /**
+     * Joins rows with <code>right</code> rows whose <code>rightColumn</code>
+     * equals their <code>leftColumn</code>. Joined rows hold all columns of
+     * the row followed by columns of the matching right row, named with
+     * <code>rightPrefix</code> prepended; right columns with names already
+     * present are left out.
+     *
+     * @param right
+     * @param leftColumn
+     * @param rightColumn
+     * @param rightPrefix
+     * @return this query
+     */
+    public Query join(
+            final List<ListEntry> right,
+            final String leftColumn,
+            final String rightColumn,
+            final String rightPrefix) {
+
+        stages.add(new Stage() {
+            @Override
+            public RowMapper prepare() {
+                return createJoin(right, leftColumn, rightColumn, rightPrefix);
+            }
+        });
+
+        return this;
+    }
+
+    /**
+     * Sorts rows by <code>column</code>. Numbers are compared as numbers and
+     * sort before other values, rows with missing values sort last.
+     *
+     * @param column
+     * @param ascending
+     * @return this query
+     */
+    public Query orderBy(final String column, final boolean ascending) {
+        this.orderColumn = column;
+        this.ascending = ascending;
+
+        return this;
+    }
+
+    /**
+     * Keeps at most <code>limit</code> rows. Combined with
+     * {@link #orderBy(String, boolean)}, only the top rows are kept while
+     * sorting.
+     *
+     * @param limit
+     * @return this query
+     */
+    public Query limit(final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit: " + limit);
+        }
+
+        this.limit = limit;
+
+        return this;
+    }
+
+    /**
+     * Keeps only <code>columns</code> of result rows, in the given order.
+     *
+     * @param columns
+     * @return this query
+     */
+    public Query select(final String... columns) {
+        this.columns = columns.clone();
+
+        return this;
+    }
+
+    /**
+     * Executes this query.
+     *
+     * @return result rows
+     */
+    public List<ListEntry> execute() {
+        List<Row> rows = run(stages.size());
+
+        if (orderColumn != null) {
+            rows = sort(rows);
+        } else if (limit >= 0 && rows.size() > limit) {
+            rows = rows.subList(0, limit);
+        }
+
+        final List<ListEntry> result = new ArrayList<ListEntry>(rows.size());
+        for (Row row : rows) {
+            result.add(toEntry(row, columns));
+        }
+
+        return result;
+    }
+
+    /**
+     * Executes this query and writes result rows to <code>where</code>,
+     * formatting them with <code>formatter</code>, preceded by a header.
+     * Without {@link #orderBy(String, boolean)}, rows are written as the last
+     * stage produces them, and no entries are created for them.
+     *
+     * @param where
+     * @param formatter
+     */
+    public void writeTo(final PrintStream where, final GSOutputFormatter formatter) {
+        final RowWriter writer = new RowWriter(where, formatter, columns, limit);
+
+        if (orderColumn != null || stages.isEmpty()) {
+            final List<Row> rows = orderColumn != null
+                    ? sort(run(stages.size()))
+                    : view(source);
+
+            for (Row row : rows) {
+                if (!writer.write(row)) {
+                    return;
+                }
+            }
+
+            return;
+        }
+
+        final RowMapper last = stages.get(stages.size() - 1).prepare();
+        final List<Row> out = new ArrayList<Row>();
+
+        for (Row row : run(stages.size() - 1)) {
+            last.map(row, out);
+
+            for (Row result : out) {
+                if (!writer.write(result)) {
+                    return;
+                }
+            }
+            out.clear();
+        }
+    }
+
+    /**
+     * Returns rows produced by the first <code>count</code> stages.
+     */
+    private List<Row> run(final int count) {
+        List<Row> rows = view(source);
+
+        for (Stage stage : stages.subList(0, count)) {
+            rows = map(rows, stage.prepare());
+        }
+
+        return rows;
+    }
+
+    private static List<Row> view(final List<ListEntry> entries) {
+        final List<Row> rows = new ArrayList<Row>(entries.size());
+        for (ListEntry entry : entries) {
+            rows.add(new EntryRow(entry));
+        }
+
+        return rows;
+    }
+
+    private static List<Row> map(
+            final List<Row> rows,
+            final RowMapper mapper) {
+
+        final MapTask task =
+                new MapTask(rows, mapper, 0, rows.size(), PARALLEL_THRESHOLD);
+
+        return rows.size() > PARALLEL_THRESHOLD
+                ? SharedForkJoinPool.get().invoke(task)
+                : task.compute();
+    }
+
+    private static RowMapper createJoin(
+            final List<ListEntry> right,
+            final String leftColumn,
+            final String rightColumn,
+            final String rightPrefix) {
+
+        // Build side.
+        final Map<String, List<Row>> index =
+                new HashMap<String, List<Row>>(right.size() * 2);
+
+        for (Row row : view(right)) {
+            final String key = Predicates.valueOf(row, rightColumn);
+            if (key == null) {
+                continue;
+            }
+
+            List<Row> matches = index.get(key);
+            if (matches == null) {
+                matches = new ArrayList<Row>(1);
+                index.put(key, matches);
+            }
+            matches.add(row);
+        }
+
+        // Probe side.
+        final JoinedRow.Layout layout = new JoinedRow.Layout(rightPrefix);
+
+        return new RowMapper() {
+            @Override
+            public void map(final Row row, final List<Row> out) {
+                final String key = Predicates.valueOf(row, leftColumn);
+                if (key == null) {
+                    return;
+                }
+
+                final List<Row> matches = index.get(key);
+                if (matches == null) {
+                    return;
+                }
+
+                for (Row match : matches) {
+                    out.add(new JoinedRow(row, match, layout));
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns entry holding <code>columns</code> of <code>row</code>, or all
+     * of its columns if <code>columns</code> is <code>null</code>. Entries of
+     * queried worksheets are returned as they are.
+     */
+    private static ListEntry toEntry(final Row row, final String[] columns) {
+        if (columns == null && row instanceof EntryRow) {
+            return ((EntryRow) row).getEntry();
+        }
+
+        final ListEntry entry = new ListEntry();
+        final CustomElementCollection elements = entry.getCustomElements();
+
+        if (columns != null) {
+            for (String column : columns) {
+                elements.setValueLocal(column, row.getValue(column));
+            }
+        } else {
+            for (String column : row.getColumns()) {
+                elements.setValueLocal(column, row.getValue(column));
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Sorts <code>rows</code> on precomputed keys, so that values are parsed
+     * once per row rather than once per comparison. With a limit, only the
+     * top rows are kept in a bounded heap.
+     */
+    private List<Row> sort(final List<Row> rows) {
+        final Comparator<SortKey> order = SortKey.order(ascending);
+
+        final List<SortKey> keys;
+
+        if (limit >= 0 && limit < rows.size()) {
+            if (limit == 0) {
+                return new ArrayList<Row>();
+            }
+
+            // Heap head is the worst of the kept rows.
+            final PriorityQueue<SortKey> top =
+                    new PriorityQueue<SortKey>(limit, Collections.reverseOrder(order));
+
+            for (int i = 0; i < rows.size(); i++) {
+                final SortKey key = new SortKey(rows.get(i), i, orderColumn);
+
+                if (top.size() < limit) {
+                    top.add(key);
+                } else if (order.compare(key, top.peek()) < 0) {
+                    top.poll();
+                    top.add(key);
+                }
+            }
+
+            keys = new ArrayList<SortKey>(top);
+        } else {
+            keys = new ArrayList<SortKey>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                keys.add(new SortKey(rows.get(i), i, orderColumn));
+            }
+        }
+
+        Collections.sort(keys, order);
+
+        final List<Row> sorted = new ArrayList<Row>(keys.size());
+        for (SortKey key : keys) {
+            sorted.add(key.row);
+        }
+
+        return sorted;
+    }
+
+    /**
+     * Writes rows formatted, preceded by a header taken from the first row,
+     * up to a limit.
+     */
+    private static class RowWriter {
+        private final PrintStream where;
+        private final GSOutputFormatter formatter;
+        private final String[] columns;
+        private final int limit;
+
+        private int count;
+
+        private RowWriter(
+                final PrintStream where,
+                final GSOutputFormatter formatter,
+                final String[] columns,
+                final int limit) {
+
+            this.where = where;
+            this.formatter = formatter;
+            this.columns = columns;
+            this.limit = limit;
+        }
+
+        /**
+         * Writes <code>row</code> if the limit is not reached.
+         *
+         * @return whether more rows may be written
+         */
+        private boolean write(final Row row) {
+            if (limit >= 0 && count >= limit) {
+                return false;
+            }
+
+            final Collection<String> names = columns != null
+                    ? Arrays.asList(columns)
+                    : row.getColumns();
+
+            if (count == 0) {
+                where.println(formatter.format(names));
+            }
+
+            final List<String> values = new ArrayList<String>(names.size());
+            for (String column : names) {
+                values.add(row.getValue(column));
+            }
+            where.println(formatter.format(values));
+
+            count++;
+
+            return limit < 0 || count < limit;
+        }
+    }
+
+    /**
+     * Part of a query, prepared once per execution.
+     */
+    private interface Stage {
+
+        RowMapper prepare();
+    }
+
+    private static class SortKey {
+        private final Row row;
+        private final int position;
+        private final String text;
+        private final double number;
+
+        private SortKey(final Row row, final int position, final String column) {
+            this.row = row;
+            this.position = position;
+            this.text = Predicates.valueOf(row, column);
+            this.number = Predicates.numberOf(row, column);
+        }
+
+        /**
+         * Returns order of keys by value, missing values last regardless of
+         * direction, and by input position among equal values.
+         */
+        private static Comparator<SortKey> order(final boolean ascending) {
+            return new Comparator<SortKey>() {
+                @Override
+                public int compare(final SortKey a, final SortKey b) {
+                    final int rank = a.rank() - b.rank();
+                    if (rank != 0) {
+                        return rank;
+                    }
+
+                    final int result = compareValues(a, b);
+                    if (result != 0) {
+                        return ascending ? result : -result;
+                    }
+
+                    return a.position < b.position
+                            ? -1
+                            : a.position > b.position ? 1 : 0;
+                }
+            };
+        }
+
+        private int rank() {
+            return text == null ? 2 : Double.isNaN(number) ? 1 : 0;
+        }
+
+        /**
+         * Compares values of keys of the same rank.
+         */
+        private static int compareValues(final SortKey a, final SortKey b) {
+            switch (a.rank()) {
+                case 0:
+                    return Double.compare(a.number, b.number);
+                case 1:
+                    return a.text.compareTo(b.text);
+                default:
+                    return 0;
+            }
+        }
+    }
+}
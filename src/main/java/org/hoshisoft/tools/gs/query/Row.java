@@ -0,0 +1,36 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.query;
+
+import java.util.Set;
+
+/**
+ * Row seen by query stages. Rows of loaded worksheets are viewed in place and
+ * joined rows refer to the rows they were joined from, so no entries are
+ * created until query results are.
+ */
+public interface Row {
+
+    /**
+     * Returns value of <code>column</code>, <code>null</code> if missing.
+     */
+    String getValue(String column);
+
+    /**
+     * Returns names of columns of this row, in order.
+     */
+    Set<String> getColumns();
+}
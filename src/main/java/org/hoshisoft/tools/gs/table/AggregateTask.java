@@ -0,0 +1,65 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.table;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes {@link Stats} of a range of values, splitting it in halves until
+ * ranges are small enough to be accumulated sequentially.
+ */
+class AggregateTask extends RecursiveTask<Stats> {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] values;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    AggregateTask(
+            final double[] values,
+            final int from,
+            final int to,
+            final int threshold) {
+
+        this.values = values;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected Stats compute() {
+        if (to - from <= threshold) {
+            final Stats stats = new Stats();
+            stats.accumulate(values, from, to);
+
+            return stats;
+        }
+
+        final int middle = (from + to) >>> 1;
+
+        final AggregateTask left = new AggregateTask(values, from, middle, threshold);
+        left.fork();
+
+        final Stats stats =
+                new AggregateTask(values, middle, to, threshold).compute();
+        stats.merge(left.join());
+
+        return stats;
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.table;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hoshisoft.tools.gs.enums.ColumnType;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Decoded values of a single worksheet column. NUMBER, BOOLEAN (1 or 0) and
+ * DATE (milliseconds since epoch) values are held in a primitive array with
+ * NaN marking missing values, STRING values in an array of strings with
+ * <code>null</code> marking missing values.
+ *
+ * Non-empty values that could not be decoded are also held as missing, and
+ * are counted, see {@link #getInvalidCount()}.
+ */
+public class Column {
+    private final String name;
+    private final ColumnType type;
+
+    private final double[] numbers;
+    private final String[] strings;
+    private final int invalidCount;
+
+    private double[] presence;
+    private int[] codes;
+    private Object[] dictionary;
+
+    private Column(
+            final String name,
+            final ColumnType type,
+            final double[] numbers,
+            final String[] strings,
+            final int invalidCount) {
+
+        this.name = name;
+        this.type = type;
+        this.numbers = numbers;
+        this.strings = strings;
+        this.invalidCount = invalidCount;
+    }
+
+    /**
+     * Decodes values of column <code>name</code> of <code>entries</code> as
+     * <code>type</code>. Values that can not be decoded as <code>type</code>
+     * are treated as missing and counted as invalid.
+     *
+     * @param name
+     * @param type
+     * @param entries
+     * @param schema
+     * @return decoded column
+     */
+    static Column decode(
+            final String name,
+            final ColumnType type,
+            final List<ListEntry> entries,
+            final WorksheetSchema schema) {
+
+        final int rows = entries.size();
+
+        if (type == ColumnType.STRING) {
+            final String[] strings = new String[rows];
+            for (int i = 0; i < rows; i++) {
+                strings[i] = entries.get(i).getCustomElements().getValue(name);
+            }
+
+            return new Column(name, type, null, strings, 0);
+        }
+
+        final SimpleDateFormat[] formats = schema.createDateFormats();
+
+        final double[] numbers = new double[rows];
+        int invalidCount = 0;
+
+        for (int i = 0; i < rows; i++) {
+            final String value =
+                    WorksheetSchema.trim(entries.get(i).getCustomElements().getValue(name));
+
+            if (value == null) {
+                numbers[i] = Double.NaN;
+            } else {
+                numbers[i] = decode(type, value, formats);
+
+                if (Double.isNaN(numbers[i])) {
+                    invalidCount++;
+                }
+            }
+        }
+
+        return new Column(name, type, numbers, null, invalidCount);
+    }
+
+    private static double decode(
+            final ColumnType type,
+            final String value,
+            final SimpleDateFormat[] formats) {
+
+        switch (type) {
+            case NUMBER:
+                return WorksheetSchema.parseNumber(value);
+            case BOOLEAN:
+                final Boolean bool = WorksheetSchema.parseBoolean(value);
+                return bool != null ? (bool ? 1 : 0) : Double.NaN;
+            case DATE:
+                final Date date = WorksheetSchema.parseDate(value, formats);
+                return date != null ? date.getTime() : Double.NaN;
+            default:
+                throw new IllegalArgumentException(String.valueOf(type));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    public int size() {
+        return numbers != null ? numbers.length : strings.length;
+    }
+
+    /**
+     * Returns number of non-empty values that could not be decoded as the
+     * type of this column. They are missing from aggregations, so a non-zero
+     * count means aggregates do not cover the whole column.
+     */
+    public int getInvalidCount() {
+        return invalidCount;
+    }
+
+    public boolean isMissing(final int row) {
+        return numbers != null ? Double.isNaN(numbers[row]) : strings[row] == null;
+    }
+
+    /**
+     * Returns value of NUMBER, BOOLEAN (1 or 0) or DATE (milliseconds since
+     * epoch) column at <code>row</code>, NaN if missing.
+     */
+    public double getNumber(final int row) {
+        checkNumeric();
+
+        return numbers[row];
+    }
+
+    public boolean getBoolean(final int row) {
+        return getNumber(row) == 1;
+    }
+
+    /**
+     * Returns value of DATE column at <code>row</code>, <code>null</code> if
+     * missing.
+     */
+    public Date getDate(final int row) {
+        final double value = getNumber(row);
+
+        return Double.isNaN(value) ? null : new Date((long) value);
+    }
+
+    /**
+     * Returns value at <code>row</code> as String, Double, Boolean or Date,
+     * according to column type, <code>null</code> if missing.
+     */
+    public Object getValue(final int row) {
+        if (isMissing(row)) {
+            return null;
+        }
+
+        switch (type) {
+            case NUMBER:
+                return numbers[row];
+            case BOOLEAN:
+                return numbers[row] == 1;
+            case DATE:
+                return new Date((long) numbers[row]);
+            default:
+                return strings[row];
+        }
+    }
+
+    /**
+     * Returns numeric values to aggregate over. STRING columns only support
+     * counting, so they are aggregated over a mask of 0 for present and NaN
+     * for missing values.
+     */
+    synchronized double[] values() {
+        if (numbers != null) {
+            return numbers;
+        }
+
+        if (presence == null) {
+            presence = new double[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                presence[i] = strings[i] != null ? 0 : Double.NaN;
+            }
+        }
+
+        return presence;
+    }
+
+    /**
+     * Returns code of every row's value in {@link #dictionary()}. Built on
+     * first use, as only group by columns need it.
+     */
+    synchronized int[] codes() {
+        if (codes == null) {
+            final int rows = size();
+            final Map<Object, Integer> index = new HashMap<Object, Integer>();
+
+            codes = new int[rows];
+            dictionary = new Object[16];
+
+            for (int i = 0; i < rows; i++) {
+                final Object value = getValue(i);
+
+                Integer code = index.get(value);
+                if (code == null) {
+                    code = index.size();
+                    index.put(value, code);
+
+                    if (code == dictionary.length) {
+                        final Object[] grown = new Object[code * 2];
+                        System.arraycopy(dictionary, 0, grown, 0, code);
+                        dictionary = grown;
+                    }
+                    dictionary[code] = value;
+                }
+
+                codes[i] = code;
+            }
+
+            final Object[] trimmed = new Object[index.size()];
+            System.arraycopy(dictionary, 0, trimmed, 0, trimmed.length);
+            dictionary = trimmed;
+        }
+
+        return codes;
+    }
+
+    /**
+     * Returns distinct values of this column, indexed by {@link #codes()}.
+     */
+    synchronized Object[] dictionary() {
+        codes();
+
+        return dictionary;
+    }
+
+    private void checkNumeric() {
+        if (numbers == null) {
+            throw new IllegalStateException(
+                "Column " + name + " is of type " + type);
+        }
+    }
+}
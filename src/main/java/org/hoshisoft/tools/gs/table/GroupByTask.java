@@ -0,0 +1,130 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.table;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes per group count, sum, minimum and maximum of a range of values,
+ * splitting it in halves until ranges are small enough to be accumulated
+ * sequentially. Groups are identified by dense codes, so accumulators are
+ * plain arrays indexed by code.
+ */
+class GroupByTask extends RecursiveTask<GroupByTask.Accumulator> {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] codes;
+    private final double[] values;
+    private final int groups;
+    private final int from;
+    private final int to;
+    private final int threshold;
+
+    GroupByTask(
+            final int[] codes,
+            final double[] values,
+            final int groups,
+            final int from,
+            final int to,
+            final int threshold) {
+
+        this.codes = codes;
+        this.values = values;
+        this.groups = groups;
+        this.from = from;
+        this.to = to;
+        this.threshold = threshold;
+    }
+
+    @Override
+    protected Accumulator compute() {
+        if (to - from <= threshold) {
+            final Accumulator accumulator = new Accumulator(groups);
+            accumulator.accumulate(codes, values, from, to);
+
+            return accumulator;
+        }
+
+        final int middle = (from + to) >>> 1;
+
+        final GroupByTask left =
+                new GroupByTask(codes, values, groups, from, middle, threshold);
+        left.fork();
+
+        final Accumulator accumulator =
+                new GroupByTask(codes, values, groups, middle, to, threshold).compute();
+        accumulator.merge(left.join());
+
+        return accumulator;
+    }
+
+    static class Accumulator {
+        private final long[] counts;
+        private final double[] sums;
+        private final double[] mins;
+        private final double[] maxs;
+
+        Accumulator(final int groups) {
+            this.counts = new long[groups];
+            this.sums = new double[groups];
+            this.mins = new double[groups];
+            this.maxs = new double[groups];
+
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        }
+
+        void accumulate(
+                final int[] codes,
+                final double[] values,
+                final int from,
+                final int to) {
+
+            for (int i = from; i < to; i++) {
+                final double value = values[i];
+                if (value != value) {
+                    continue;
+                }
+
+                final int code = codes[i];
+
+                counts[code]++;
+                sums[code] += value;
+                if (value < mins[code]) {
+                    mins[code] = value;
+                }
+                if (value > maxs[code]) {
+                    maxs[code] = value;
+                }
+            }
+        }
+
+        void merge(final Accumulator other) {
+            for (int code = 0; code < counts.length; code++) {
+                counts[code] += other.counts[code];
+                sums[code] += other.sums[code];
+                mins[code] = Math.min(mins[code], other.mins[code]);
+                maxs[code] = Math.max(maxs[code], other.maxs[code]);
+            }
+        }
+
+        Stats get(final int code) {
+            return new Stats(counts[code], sums[code], mins[code], maxs[code]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.table;
+
+import org.hoshisoft.tools.gs.enums.Aggregation;
+
+/**
+ * Count, sum, minimum and maximum of non-missing values of a column, from
+ * which every {@link Aggregation} is derived.
+ */
+public class Stats {
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    Stats() {
+    }
+
+    Stats(final long count, final double sum, final double min, final double max) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Accumulates <code>values</code> in range <code>[from, to)</code>,
+     * skipping missing (NaN) values.
+     */
+    void accumulate(final double[] values, final int from, final int to) {
+        long count = this.count;
+        double sum = this.sum;
+        double min = this.min;
+        double max = this.max;
+
+        for (int i = from; i < to; i++) {
+            final double value = values[i];
+            if (value != value) {
+                continue;
+            }
+
+            count++;
+            sum += value;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Merges <code>other</code> into this.
+     */
+    void merge(final Stats other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns value of <code>aggregation</code>. MIN, MAX and AVG of no
+     * values are NaN.
+     *
+     * @param aggregation
+     * @return aggregated value
+     */
+    public double get(final Aggregation aggregation) {
+        switch (aggregation) {
+            case SUM:
+                return sum;
+            case MIN:
+                return count > 0 ? min : Double.NaN;
+            case MAX:
+                return count > 0 ? max : Double.NaN;
+            case COUNT:
+                return count;
+            case AVG:
+                return count > 0 ? sum / count : Double.NaN;
+            default:
+                throw new IllegalArgumentException(String.valueOf(aggregation));
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return get(Aggregation.MIN);
+    }
+
+    public double getMax() {
+        return get(Aggregation.MAX);
+    }
+
+    public double getAvg() {
+        return get(Aggregation.AVG);
+    }
+
+    @Override
+    public String toString() {
+        return "Stats[count=" + count + ", sum=" + sum
+                + ", min=" + getMin() + ", max=" + getMax() + "]";
+    }
+}
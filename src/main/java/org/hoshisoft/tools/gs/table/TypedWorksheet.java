@@ -0,0 +1,243 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.table;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hoshisoft.tools.gs.concurrent.SharedForkJoinPool;
+import org.hoshisoft.tools.gs.enums.Aggregation;
+import org.hoshisoft.tools.gs.enums.ColumnType;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Worksheet decoded once into typed columns, over which aggregations run in
+ * parallel on a fork/join pool.
+ */
+public class TypedWorksheet {
+    /** Number of rows below which a range is aggregated sequentially. */
+    public static final int PARALLEL_THRESHOLD = 1 << 14;
+
+    private final int rowCount;
+    private final Map<String, Column> columns;
+
+    private TypedWorksheet(final int rowCount, final Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.columns = columns;
+    }
+
+    /**
+     * Decodes <code>entries</code> into typed columns, inferring types of all
+     * columns.
+     *
+     * @param entries
+     * @return decoded worksheet
+     */
+    public static TypedWorksheet decode(final List<ListEntry> entries) {
+        return decode(entries, new WorksheetSchema());
+    }
+
+    /**
+     * Decodes <code>entries</code> into typed columns, using types declared
+     * in <code>schema</code> and inferring types of undeclared columns.
+     *
+     * @param entries
+     * @param schema
+     * @return decoded worksheet
+     */
+    public static TypedWorksheet decode(
+            final List<ListEntry> entries,
+            final WorksheetSchema schema) {
+
+        final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+
+        if (entries != null && !entries.isEmpty()) {
+            for (String tag : entries.get(0).getCustomElements().getTags()) {
+                final ColumnType type = schema.resolveType(tag, entries);
+
+                columns.put(tag, Column.decode(tag, type, entries, schema));
+            }
+        }
+
+        return new TypedWorksheet(
+            entries != null ? entries.size() : 0,
+            Collections.unmodifiableMap(columns));
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns columns of this worksheet, in worksheet order.
+     *
+     * @return columns by name
+     */
+    public Map<String, Column> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns column <code>name</code>.
+     *
+     * @param name
+     * @return column
+     * @throws IllegalArgumentException
+     *             if there is no such column
+     */
+    public Column getColumn(final String name) {
+        final Column column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No such column: " + name);
+        }
+
+        return column;
+    }
+
+    /**
+     * Returns <code>aggregation</code> of non-missing values of
+     * <code>column</code>.
+     *
+     * @param column
+     * @param aggregation
+     * @return aggregated value
+     */
+    public double aggregate(final String column, final Aggregation aggregation) {
+        return summarize(column, aggregation).get(aggregation);
+    }
+
+    /**
+     * Returns count, sum, minimum and maximum of non-missing values of
+     * <code>column</code>. STRING columns may only be counted.
+     *
+     * @param column
+     * @return column statistics
+     */
+    public Stats summarize(final String column) {
+        return summarize(column, null);
+    }
+
+    /**
+     * Returns <code>aggregation</code> of non-missing values of
+     * <code>valueColumn</code>, per distinct value of <code>keyColumn</code>.
+     * Keys are String, Double, Boolean or Date according to the key column
+     * type, <code>null</code> grouping rows with missing keys.
+     *
+     * @param keyColumn
+     * @param valueColumn
+     * @param aggregation
+     * @return aggregated value by key, in order of first appearance
+     */
+    public Map<Object, Double> groupBy(
+            final String keyColumn,
+            final String valueColumn,
+            final Aggregation aggregation) {
+
+        final Map<Object, Stats> groups =
+                group(keyColumn, valueColumn, aggregation);
+
+        final Map<Object, Double> result =
+                new LinkedHashMap<Object, Double>(groups.size() * 2);
+        for (Map.Entry<Object, Stats> group : groups.entrySet()) {
+            result.put(group.getKey(), group.getValue().get(aggregation));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns count, sum, minimum and maximum of non-missing values of
+     * <code>valueColumn</code>, per distinct value of <code>keyColumn</code>.
+     *
+     * @param keyColumn
+     * @param valueColumn
+     * @return column statistics by key, in order of first appearance
+     * @see #groupBy(String, String, Aggregation)
+     */
+    public Map<Object, Stats> groupBy(
+            final String keyColumn,
+            final String valueColumn) {
+
+        return group(keyColumn, valueColumn, null);
+    }
+
+    private Stats summarize(final String name, final Aggregation aggregation) {
+        final double[] values = valuesOf(getColumn(name), aggregation);
+
+        final AggregateTask task =
+                new AggregateTask(values, 0, values.length, PARALLEL_THRESHOLD);
+
+        return values.length > PARALLEL_THRESHOLD
+                ? SharedForkJoinPool.get().invoke(task)
+                : task.compute();
+    }
+
+    private Map<Object, Stats> group(
+            final String keyColumn,
+            final String valueColumn,
+            final Aggregation aggregation) {
+
+        final Column key = getColumn(keyColumn);
+        final double[] values = valuesOf(getColumn(valueColumn), aggregation);
+
+        final int[] codes = key.codes();
+        final Object[] dictionary = key.dictionary();
+
+        // Every leaf task allocates accumulators for all groups, so leaves
+        // must be large enough for that to pay off.
+        final int threshold =
+                (int) Math.min(
+                    Integer.MAX_VALUE,
+                    Math.max(PARALLEL_THRESHOLD, 4L * dictionary.length));
+
+        final GroupByTask task =
+                new GroupByTask(
+                    codes, values, dictionary.length, 0, values.length, threshold);
+
+        final GroupByTask.Accumulator accumulator =
+                values.length > threshold
+                        ? SharedForkJoinPool.get().invoke(task)
+                        : task.compute();
+
+        final Map<Object, Stats> result =
+                new LinkedHashMap<Object, Stats>(dictionary.length * 2);
+        for (int code = 0; code < dictionary.length; code++) {
+            result.put(dictionary[code], accumulator.get(code));
+        }
+
+        return result;
+    }
+
+    private static double[] valuesOf(
+            final Column column,
+            final Aggregation aggregation) {
+
+        if (column.getType() == ColumnType.STRING
+                && aggregation != null
+                && aggregation != Aggregation.COUNT) {
+
+            throw new IllegalArgumentException(
+                "Column " + column.getName() + " of type STRING supports only "
+                + Aggregation.COUNT);
+        }
+
+        return column.values();
+    }
+}
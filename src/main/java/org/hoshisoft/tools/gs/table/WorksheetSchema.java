@@ -0,0 +1,276 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.table;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.hoshisoft.tools.gs.enums.ColumnType;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+/**
+ * Declares types of worksheet columns. Columns without a declared type are
+ * inferred from their values when the worksheet is decoded.
+ */
+public class WorksheetSchema {
+    public static final String[] DEFAULT_DATE_PATTERNS = {
+        "yyyy-MM-dd",
+        "yyyy-MM-dd HH:mm:ss",
+        "M/d/yyyy",
+        "M/d/yyyy H:mm:ss"
+    };
+
+    /**
+     * Unsigned decimal number, optionally with comma grouping separators and
+     * an exponent. Anything else Double.parseDouble accepts, such as hex 
+     * floats or type suffixes ("12d"), is not a number here.
+     */
+    private static final Pattern DECIMAL_NUMBER =
+            Pattern.compile(
+                "(\\d{1,3}(,\\d{3})+|\\d+)(\\.\\d*)?([eE][+-]?\\d+)?"
+                + "|\\.\\d+([eE][+-]?\\d+)?");
+
+    private final Map<String, ColumnType> types;
+    private final String[] datePatterns;
+
+    /**
+     * Creates new instance of class WorksheetSchema, recognizing dates in
+     * {@link #DEFAULT_DATE_PATTERNS}.
+     */
+    public WorksheetSchema() {
+        this(DEFAULT_DATE_PATTERNS);
+    }
+
+    /**
+     * Creates new instance of class WorksheetSchema.
+     *
+     * @param datePatterns
+     *            SimpleDateFormat patterns of date values, tried in order
+     */
+    public WorksheetSchema(final String... datePatterns) {
+        this.types = new HashMap<String, ColumnType>();
+        this.datePatterns = datePatterns.clone();
+    }
+
+    /**
+     * Declares type of <code>column</code>.
+     *
+     * @param column
+     * @param type
+     * @return this schema
+     */
+    public WorksheetSchema setType(final String column, final ColumnType type) {
+        types.put(column, type);
+
+        return this;
+    }
+
+    /**
+     * Returns declared type of <code>column</code>.
+     *
+     * @param column
+     * @return declared type, or <code>null</code> if not declared
+     */
+    public ColumnType getType(final String column) {
+        return types.get(column);
+    }
+
+    /**
+     * Returns declared type of <code>column</code>, inferring it from values
+     * in <code>entries</code> if not declared. A column is inferred as
+     * BOOLEAN, NUMBER or DATE only if all of its non-empty values are of that
+     * type, otherwise it is a STRING.
+     *
+     * @param column
+     * @param entries
+     * @return type of column
+     */
+    public ColumnType resolveType(
+            final String column,
+            final List<ListEntry> entries) {
+
+        final ColumnType declared = types.get(column);
+        if (declared != null) {
+            return declared;
+        }
+
+        final SimpleDateFormat[] formats = createDateFormats();
+
+        boolean isBoolean = true;
+        boolean isNumber = true;
+        boolean isDate = true;
+        boolean isEmpty = true;
+
+        for (ListEntry entry : entries) {
+            final String value = trim(entry.getCustomElements().getValue(column));
+            if (value == null) {
+                continue;
+            }
+
+            isEmpty = false;
+            isBoolean = isBoolean && parseBoolean(value) != null;
+            isNumber = isNumber && !Double.isNaN(parseNumber(value));
+            isDate = isDate && !isNumber && parseDate(value, formats) != null;
+
+            if (!isBoolean && !isNumber && !isDate) {
+                return ColumnType.STRING;
+            }
+        }
+
+        if (isEmpty) {
+            return ColumnType.STRING;
+        } else if (isBoolean) {
+            return ColumnType.BOOLEAN;
+        } else if (isNumber) {
+            return ColumnType.NUMBER;
+        }
+
+        return ColumnType.DATE;
+    }
+
+    /**
+     * Returns newly created date formats, one for each date pattern. Formats
+     * are not thread safe, so every decoding pass creates its own.
+     *
+     * @return date formats
+     */
+    SimpleDateFormat[] createDateFormats() {
+        final SimpleDateFormat[] formats = new SimpleDateFormat[datePatterns.length];
+
+        for (int i = 0; i < datePatterns.length; i++) {
+            formats[i] = new SimpleDateFormat(datePatterns[i]);
+            formats[i].setLenient(false);
+        }
+
+        return formats;
+    }
+
+    /**
+     * Returns trimmed <code>value</code>, or <code>null</code> if empty.
+     */
+    static String trim(final String value) {
+        if (value == null) {
+            return null;
+        }
+
+        final String trimmed = value.trim();
+
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    /**
+     * Returns <code>value</code> parsed as a number, or NaN if it is not one.
+     * Numbers formatted by spreadsheets are recognized: comma grouping 
+     * separators ("1,234.50"), a currency symbol ("$12", "-12 €"), negatives
+     * in parentheses ("(12)") and percentages ("45%" is 0.45). Surrounding 
+     * whitespace is ignored.
+     * 
+     * @param value
+     *            cell value, may be <code>null</code>
+     * @return number, or NaN
+     */
+    public static double parseNumber(final String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+
+        String number = value.trim();
+        boolean negative = false;
+        double scale = 1;
+
+        if (number.length() > 1
+                && number.charAt(0) == '('
+                && number.charAt(number.length() - 1) == ')') {
+
+            negative = true;
+            number = number.substring(1, number.length() - 1).trim();
+        }
+
+        if (number.startsWith("-") || number.startsWith("+")) {
+            negative = negative != number.startsWith("-");
+            number = number.substring(1).trim();
+        }
+
+        if (number.endsWith("%")) {
+            scale = 0.01;
+            number = number.substring(0, number.length() - 1).trim();
+        }
+
+        if (!number.isEmpty() && isCurrency(number.charAt(0))) {
+            number = number.substring(1).trim();
+        } else if (!number.isEmpty() && isCurrency(number.charAt(number.length() - 1))) {
+            number = number.substring(0, number.length() - 1).trim();
+        }
+
+        if (!DECIMAL_NUMBER.matcher(number).matches()) {
+            return Double.NaN;
+        }
+
+        if (number.indexOf(',') >= 0) {
+            number = number.replace(",", "");
+        }
+
+        try {
+            final double parsed = Double.parseDouble(number);
+
+            return (negative ? -parsed : parsed) * scale;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isCurrency(final char c) {
+        return Character.getType(c) == Character.CURRENCY_SYMBOL;
+    }
+
+    /**
+     * Returns <code>value</code> parsed as a boolean, or <code>null</code> if
+     * it is not one.
+     */
+    static Boolean parseBoolean(final String value) {
+        if ("true".equalsIgnoreCase(value)) {
+            return Boolean.TRUE;
+        } else if ("false".equalsIgnoreCase(value)) {
+            return Boolean.FALSE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns <code>value</code> parsed with the first matching of
+     * <code>formats</code>, or <code>null</code> if none matches it entirely.
+     */
+    static Date parseDate(final String value, final SimpleDateFormat[] formats) {
+        for (SimpleDateFormat format : formats) {
+            final ParsePosition position = new ParsePosition(0);
+
+            final Date date = format.parse(value, position);
+            if (date != null && position.getIndex() == value.length()) {
+                return date;
+            }
+        }
+
+        return null;
+    }
+}
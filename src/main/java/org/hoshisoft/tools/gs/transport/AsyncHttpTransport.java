@@ -0,0 +1,635 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+
+import com.google.gdata.client.AuthTokenFactory;
+import com.google.gdata.client.GoogleService;
+import com.google.gdata.client.Query;
+import com.google.gdata.client.http.HttpAuthToken;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.BaseFeed;
+import com.google.gdata.data.ExtensionProfile;
+import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.ContentType;
+import com.google.gdata.util.EntityTooLargeException;
+import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.NoLongerAvailableException;
+import com.google.gdata.util.NotAcceptableException;
+import com.google.gdata.util.NotImplementedException;
+import com.google.gdata.util.NotModifiedException;
+import com.google.gdata.util.PreconditionFailedException;
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.VersionConflictException;
+import com.google.gdata.util.common.xml.XmlWriter;
+
+/**
+ * FeedTransport carrying requests over a non-blocking HTTP client. Requests
+ * do not hold a thread while waiting for the API: all of them are driven by
+ * a few I/O threads over a small pool of keep-alive connections, so many
+ * feed requests can be in flight at once.
+ *
+ * Response bodies are buffered by the I/O threads and parsed by the thread
+ * reading the result from the returned future, so slow parsing never stalls
+ * other requests. Authorization and extensions are taken from a gdata
+ * service, which itself makes no requests. As with the service, a request
+ * refused as unauthorized is sent once more after the service renewed its
+ * expired session, and failed requests throw the exception types the service
+ * throws for their status.
+ *
+ * {@link TransportConfig} is applied when the transport is created. The
+ * transport must be closed to release its threads and connections.
+ */
+public class AsyncHttpTransport implements FeedTransport {
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    private static final String UTF_8 = "UTF-8";
+
+    private final GoogleService service;
+    private final ExtensionProfile extensionProfile;
+    private final TransportConfig config;
+    private final TransportMetrics metrics;
+    private final Map<String, String> headers;
+    private final CloseableHttpAsyncClient client;
+
+    /**
+     * Creates new instance of class AsyncHttpTransport with
+     * {@link #DEFAULT_MAX_CONNECTIONS} connections and
+     * {@link #DEFAULT_IO_THREADS} I/O threads.
+     *
+     * @param service
+     *            service with authorization set
+     * @param config
+     * @param metrics
+     */
+    public AsyncHttpTransport(
+            final GoogleService service,
+            final TransportConfig config,
+            final TransportMetrics metrics) {
+
+        this(service, config, metrics, DEFAULT_MAX_CONNECTIONS, DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * Creates new instance of class AsyncHttpTransport and starts its I/O
+     * threads.
+     *
+     * @param service
+     *            service with authorization set
+     * @param config
+     * @param metrics
+     * @param maxConnections
+     *            maximum number of open connections
+     * @param ioThreads
+     *            number of threads doing network I/O
+     */
+    public AsyncHttpTransport(
+            final GoogleService service,
+            final TransportConfig config,
+            final TransportMetrics metrics,
+            final int maxConnections,
+            final int ioThreads) {
+
+        this.service = service;
+        this.extensionProfile = service.getExtensionProfile();
+        this.config = config;
+        this.metrics = metrics;
+
+        this.headers = new ConcurrentHashMap<String, String>();
+        this.headers.put("GData-Version", service.getProtocolVersion().getVersionString());
+
+        this.client = HttpAsyncClients.custom()
+                .setDefaultIOReactorConfig(
+                    IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreads)
+                        .setConnectTimeout(config.getConnectTimeout())
+                        .setSoTimeout(config.getReadTimeout())
+                        .build())
+                .setDefaultRequestConfig(
+                    RequestConfig.custom()
+                        .setConnectTimeout(config.getConnectTimeout())
+                        .setSocketTimeout(config.getReadTimeout())
+                        .build())
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setConnectionReuseStrategy(
+                    config.isKeepAlive()
+                        ? DefaultConnectionReuseStrategy.INSTANCE
+                        : NoConnectionReuseStrategy.INSTANCE)
+                .disableCookieManagement()
+                .build();
+
+        this.client.start();
+    }
+
+    /**
+     * Sets header sent with every request.
+     *
+     * @param name
+     * @param value
+     */
+    public void setHeader(final String name, final String value) {
+        headers.put(name, value);
+    }
+
+    @Override
+    public <F extends BaseFeed<?, ?>> Future<F> getFeed(
+            final URL feedUrl,
+            final Class<F> feedClass) {
+
+        return execute(feedUrl, new HttpGet(), new FeedParser<F>(feedClass));
+    }
+
+    @Override
+    public <F extends BaseFeed<?, ?>> Future<F> query(
+            final Query query,
+            final Class<F> feedClass) {
+
+        return getFeed(query.getUrl(), feedClass);
+    }
+
+    @Override
+    public <E extends BaseEntry<?>> Future<E> insert(
+            final URL feedUrl,
+            final E entry) {
+
+        final HttpPost request = new HttpPost();
+
+        try {
+            request.setEntity(toAtom(entry, null));
+        } catch (IOException e) {
+            return new ResponseFuture<E>(e);
+        }
+
+        @SuppressWarnings("unchecked")
+        final Class<E> entryClass = (Class<E>) entry.getClass();
+
+        return execute(feedUrl, request, new EntryParser<E>(entryClass));
+    }
+
+    @Override
+    public <F extends BaseFeed<?, ?>> Future<F> batch(
+            final URL batchUrl,
+            final F feed) {
+
+        final HttpPost request = new HttpPost();
+
+        try {
+            request.setEntity(toAtom(null, feed));
+        } catch (IOException e) {
+            return new ResponseFuture<F>(e);
+        }
+
+        @SuppressWarnings("unchecked")
+        final Class<F> feedClass = (Class<F>) feed.getClass();
+
+        return execute(batchUrl, request, new FeedParser<F>(feedClass));
+    }
+
+    @Override
+    public Future<Void> delete(final URL entryUrl, final String etag) {
+        final HttpDelete request = new HttpDelete();
+        if (etag != null) {
+            request.setHeader("If-Match", etag);
+        }
+
+        return execute(entryUrl, request, new ResponseParser<Void>() {
+            @Override
+            public Void parse(final InputStream in) {
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stops I/O threads and closes all connections. Requests still in flight
+     * fail.
+     */
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private <T> Future<T> execute(
+            final URL url,
+            final HttpRequestBase request,
+            final ResponseParser<T> parser) {
+
+        try {
+            request.setURI(url.toURI());
+        } catch (URISyntaxException e) {
+            return new ResponseFuture<T>(new IOException("Invalid URL: " + url, e));
+        }
+
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        request.setHeader(
+            "Accept-Encoding",
+            config.isCompression() ? TunedGDataRequest.GZIP : TunedGDataRequest.IDENTITY);
+
+        if (!config.isKeepAlive()) {
+            request.setHeader("Connection", "close");
+        }
+
+        return new ResponseFuture<T>(url, request, parser);
+    }
+
+    /**
+     * Sends <code>request</code> to <code>url</code>, authorized with the
+     * current token of the service. Token is read on every request, as it is
+     * renewed when the session expires.
+     */
+    private Future<HttpResponse> send(final URL url, final HttpRequestBase request) {
+        final AuthTokenFactory tokenFactory = service.getAuthTokenFactory();
+        final AuthTokenFactory.AuthToken token =
+                tokenFactory != null ? tokenFactory.getAuthToken() : null;
+
+        if (token instanceof HttpAuthToken) {
+            request.setHeader(
+                "Authorization",
+                ((HttpAuthToken) token).getAuthorizationHeader(url, request.getMethod()));
+        }
+
+        return client.execute(request, null);
+    }
+
+    /**
+     * Renews expired session of the service, after a request was refused 
+     * with <code>e</code>.
+     *
+     * @return <code>true</code> if renewed, so that the request may be sent
+     *         again
+     */
+    private boolean renewSession(final AuthenticationException e) {
+        final AuthTokenFactory tokenFactory = service.getAuthTokenFactory();
+        if (tokenFactory == null) {
+            return false;
+        }
+
+        final GoogleService.SessionExpiredException expired =
+                new GoogleService.SessionExpiredException(e.getMessage());
+        expired.setResponse(e.getResponseContentType(), e.getResponseBody());
+
+        try {
+            tokenFactory.handleSessionExpiredException(expired);
+            return true;
+        } catch (AuthenticationException notRenewed) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns Atom representation of <code>entry</code>, or of
+     * <code>feed</code> if <code>entry</code> is <code>null</code>.
+     */
+    private HttpEntity toAtom(final BaseEntry<?> entry, final BaseFeed<?, ?> feed)
+            throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final XmlWriter writer = new XmlWriter(new OutputStreamWriter(out, UTF_8), UTF_8);
+
+        if (entry != null) {
+            entry.generateAtom(writer, extensionProfile);
+        } else {
+            feed.generateAtom(writer, extensionProfile);
+        }
+        writer.flush();
+
+        final ByteArrayEntity body = new ByteArrayEntity(out.toByteArray());
+        body.setContentType(
+            (entry != null ? ContentType.ATOM_ENTRY : ContentType.ATOM_FEED).toString());
+
+        return body;
+    }
+
+    /**
+     * Returns body of successful <code>response</code> parsed with
+     * <code>parser</code>.
+     */
+    private <T> T read(final HttpResponse response, final ResponseParser<T> parser)
+            throws IOException, ServiceException {
+
+        final int status = response.getStatusLine().getStatusCode();
+        final HttpEntity entity = response.getEntity();
+
+        if (status >= HttpStatus.SC_MULTIPLE_CHOICES) {
+            throw createException(response);
+        }
+
+        if (entity == null) {
+            return parser.parse(null);
+        }
+
+        final Header encoding = entity.getContentEncoding();
+
+        final InputStream in =
+                CountingInputStream.decode(
+                    entity.getContent(),
+                    encoding != null
+                        && TunedGDataRequest.GZIP.equalsIgnoreCase(encoding.getValue()),
+                    metrics);
+
+        try {
+            return parser.parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns exception of failed <code>response</code>, of the type gdata
+     * throws for its status.
+     */
+    private static ServiceException createException(final HttpResponse response)
+            throws IOException {
+
+        final int status = response.getStatusLine().getStatusCode();
+        final String message = response.getStatusLine().getReasonPhrase();
+
+        final ServiceException e;
+        switch (status) {
+            case HttpStatus.SC_NOT_MODIFIED:
+                e = new NotModifiedException(message);
+                break;
+            case HttpStatus.SC_BAD_REQUEST:
+                e = new InvalidEntryException(message);
+                break;
+            case HttpStatus.SC_UNAUTHORIZED:
+                e = new AuthenticationException(message);
+                break;
+            case HttpStatus.SC_FORBIDDEN:
+                e = new ServiceForbiddenException(message);
+                break;
+            case HttpStatus.SC_NOT_FOUND:
+                e = new ResourceNotFoundException(message);
+                break;
+            case HttpStatus.SC_NOT_ACCEPTABLE:
+                e = new NotAcceptableException(message);
+                break;
+            case HttpStatus.SC_CONFLICT:
+                e = new VersionConflictException();
+                break;
+            case HttpStatus.SC_GONE:
+                e = new NoLongerAvailableException(message);
+                break;
+            case HttpStatus.SC_PRECONDITION_FAILED:
+                e = new PreconditionFailedException(message);
+                break;
+            case HttpStatus.SC_REQUEST_TOO_LONG:
+                e = new EntityTooLargeException(message);
+                break;
+            case HttpStatus.SC_NOT_IMPLEMENTED:
+                e = new NotImplementedException(message);
+                break;
+            default:
+                e = new ServiceException(message);
+                break;
+        }
+
+        e.setHttpErrorCodeOverride(status);
+
+        final HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            final Header contentType = entity.getContentType();
+
+            e.setResponse(
+                contentType != null
+                    ? new ContentType(contentType.getValue())
+                    : ContentType.TEXT_PLAIN,
+                EntityUtils.toString(entity, UTF_8));
+        }
+
+        return e;
+    }
+
+    /**
+     * Parses a response body.
+     */
+    private interface ResponseParser<T> {
+
+        T parse(InputStream in) throws IOException, ServiceException;
+    }
+
+    private class FeedParser<F extends BaseFeed<?, ?>> implements ResponseParser<F> {
+        private final Class<F> feedClass;
+
+        private FeedParser(final Class<F> feedClass) {
+            this.feedClass = feedClass;
+        }
+
+        @Override
+        public F parse(final InputStream in) throws IOException, ServiceException {
+            final F feed = newInstance(feedClass);
+            feed.parseAtom(extensionProfile, in);
+
+            // Entries need the service to resolve their links, e.g. list feed URL.
+            feed.setService(service);
+
+            return feed;
+        }
+    }
+
+    private class EntryParser<E extends BaseEntry<?>> implements ResponseParser<E> {
+        private final Class<E> entryClass;
+
+        private EntryParser(final Class<E> entryClass) {
+            this.entryClass = entryClass;
+        }
+
+        @Override
+        public E parse(final InputStream in) throws IOException, ServiceException {
+            final E entry = newInstance(entryClass);
+            entry.parseAtom(extensionProfile, in);
+            entry.setService(service);
+
+            return entry;
+        }
+    }
+
+    private static <T> T newInstance(final Class<T> type) throws ServiceException {
+        try {
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new ServiceException("Unable to create " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Future of a parsed response. The response is parsed once, by the first
+     * thread reading the result. A request refused as unauthorized is sent
+     * again once by that thread, if the session could be renewed.
+     */
+    private class ResponseFuture<T> implements Future<T> {
+        private final URL url;
+        private final HttpRequestBase request;
+        private final ResponseParser<T> parser;
+
+        // Guarded by this.
+        private Future<HttpResponse> response;
+        private boolean resent;
+        private boolean parsed;
+        private T result;
+        private Exception failure;
+
+        private ResponseFuture(
+                final URL url,
+                final HttpRequestBase request,
+                final ResponseParser<T> parser) {
+
+            this.url = url;
+            this.request = request;
+            this.parser = parser;
+            this.response = send(url, request);
+        }
+
+        /**
+         * Creates future of a request that failed before it was sent.
+         */
+        private ResponseFuture(final Exception failure) {
+            this.url = null;
+            this.request = null;
+            this.parser = null;
+            this.parsed = true;
+            this.failure = failure;
+        }
+
+        @Override
+        public synchronized boolean cancel(final boolean mayInterruptIfRunning) {
+            return !parsed && response.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public synchronized boolean isCancelled() {
+            return response != null && response.isCancelled();
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return parsed || response.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            Future<HttpResponse> pending;
+            while ((pending = pending()) != null) {
+                complete(pending, pending.get());
+            }
+
+            return result();
+        }
+
+        @Override
+        public T get(final long timeout, final TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            Future<HttpResponse> pending;
+            while ((pending = pending()) != null) {
+                complete(
+                    pending,
+                    pending.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            }
+
+            return result();
+        }
+
+        /**
+         * Returns response to be parsed, <code>null</code> if parsed already.
+         */
+        private synchronized Future<HttpResponse> pending() {
+            return parsed ? null : response;
+        }
+
+        /**
+         * Parses <code>httpResponse</code> of <code>from</code>, unless
+         * another thread did, or sends the request again if it was refused
+         * as unauthorized for the first time and the session was renewed.
+         */
+        private synchronized void complete(
+                final Future<HttpResponse> from,
+                final HttpResponse httpResponse) {
+
+            if (parsed || from != response) {
+                return;
+            }
+
+            try {
+                result = read(httpResponse, parser);
+            } catch (AuthenticationException e) {
+                if (!resent
+                        && e.getHttpErrorCodeOverride() == HttpStatus.SC_UNAUTHORIZED
+                        && renewSession(e)) {
+
+                    resent = true;
+                    request.reset();
+                    response = send(url, request);
+                    return;
+                }
+
+                failure = e;
+            } catch (IOException e) {
+                failure = e;
+            } catch (ServiceException e) {
+                failure = e;
+            }
+
+            parsed = true;
+        }
+
+        private synchronized T result() throws ExecutionException {
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+
+            return result;
+        }
+    }
+}
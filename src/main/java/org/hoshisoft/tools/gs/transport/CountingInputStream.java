@@ -0,0 +1,103 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.transport;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Counts bytes read into transferred or decoded bytes of metrics.
+ */
+class CountingInputStream extends FilterInputStream {
+    private final TransportMetrics metrics;
+    private final boolean transferred;
+
+    private CountingInputStream(
+            final InputStream in,
+            final TransportMetrics metrics,
+            final boolean transferred) {
+
+        super(in);
+
+        this.metrics = metrics;
+        this.transferred = transferred;
+    }
+
+    /**
+     * Returns stream of response body <code>in</code>, decompressed while it
+     * is being read if <code>compressed</code>, counting the response and its
+     * bytes into <code>metrics</code>.
+     */
+    static InputStream decode(
+            final InputStream in,
+            final boolean compressed,
+            final TransportMetrics metrics)
+    throws IOException {
+
+        metrics.addResponse(compressed);
+
+        InputStream stream = new CountingInputStream(in, metrics, true);
+
+        if (compressed) {
+            stream = new GZIPInputStream(stream);
+        }
+
+        return new CountingInputStream(stream, metrics, false);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b >= 0) {
+            count(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len)
+            throws IOException {
+
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            count(n);
+        }
+
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(n);
+        if (skipped > 0) {
+            count(skipped);
+        }
+
+        return skipped;
+    }
+
+    private void count(final long bytes) {
+        if (transferred) {
+            metrics.addTransferredBytes(bytes);
+        } else {
+            metrics.addDecodedBytes(bytes);
+        }
+    }
+}
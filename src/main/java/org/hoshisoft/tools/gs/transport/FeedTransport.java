@@ -0,0 +1,74 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.transport;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.util.concurrent.Future;
+
+import com.google.gdata.client.Query;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.BaseFeed;
+
+/**
+ * Carries feed requests to the spreadsheet API. Requests are started when a
+ * method is called and their results are read from returned futures, whose
+ * <code>get()</code> fails with an ExecutionException caused by an
+ * IOException or a ServiceException if the request failed.
+ *
+ * Implementations may complete requests in the calling thread or
+ * concurrently, and must be safe to use from several threads.
+ *
+ * @see GDataTransport
+ * @see AsyncHttpTransport
+ */
+public interface FeedTransport extends Closeable {
+
+    /**
+     * Requests feed at <code>feedUrl</code>.
+     */
+    <F extends BaseFeed<?, ?>> Future<F> getFeed(URL feedUrl, Class<F> feedClass);
+
+    /**
+     * Requests feed matching <code>query</code>.
+     */
+    <F extends BaseFeed<?, ?>> Future<F> query(Query query, Class<F> feedClass);
+
+    /**
+     * Inserts <code>entry</code> into feed at <code>feedUrl</code>.
+     *
+     * @return inserted entry, as returned by the API
+     */
+    <E extends BaseEntry<?>> Future<E> insert(URL feedUrl, E entry);
+
+    /**
+     * Executes batch operations of <code>feed</code> at batch URL
+     * <code>batchUrl</code>.
+     *
+     * @return feed holding result of every operation
+     */
+    <F extends BaseFeed<?, ?>> Future<F> batch(URL batchUrl, F feed);
+
+    /**
+     * Deletes entry at <code>entryUrl</code>.
+     *
+     * @param entryUrl
+     *            edit URL of the entry
+     * @param etag
+     *            ETag of the entry, <code>null</code> to delete any version
+     */
+    Future<Void> delete(URL entryUrl, String etag);
+}
@@ -0,0 +1,127 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.transport;
+
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.gdata.client.Query;
+import com.google.gdata.client.Service;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.BaseFeed;
+
+/**
+ * FeedTransport carrying requests through a gdata service, one blocking
+ * request per calling thread. Requests complete in the calling thread, so
+ * returned futures are always done.
+ */
+public class GDataTransport implements FeedTransport {
+    private final Service service;
+
+    /**
+     * Creates new instance of class GDataTransport.
+     *
+     * @param service
+     *            service with authorization and request factory set
+     */
+    public GDataTransport(final Service service) {
+        this.service = service;
+    }
+
+    @Override
+    public <F extends BaseFeed<?, ?>> Future<F> getFeed(
+            final URL feedUrl,
+            final Class<F> feedClass) {
+
+        return run(new Callable<F>() {
+            @Override
+            public F call() throws Exception {
+                return service.getFeed(feedUrl, feedClass);
+            }
+        });
+    }
+
+    @Override
+    public <F extends BaseFeed<?, ?>> Future<F> query(
+            final Query query,
+            final Class<F> feedClass) {
+
+        return run(new Callable<F>() {
+            @Override
+            public F call() throws Exception {
+                return service.query(query, feedClass);
+            }
+        });
+    }
+
+    @Override
+    public <E extends BaseEntry<?>> Future<E> insert(
+            final URL feedUrl,
+            final E entry) {
+
+        return run(new Callable<E>() {
+            @Override
+            public E call() throws Exception {
+                return service.insert(feedUrl, entry);
+            }
+        });
+    }
+
+    @Override
+    public <F extends BaseFeed<?, ?>> Future<F> batch(
+            final URL batchUrl,
+            final F feed) {
+
+        return run(new Callable<F>() {
+            @Override
+            public F call() throws Exception {
+                return service.batch(batchUrl, feed);
+            }
+        });
+    }
+
+    @Override
+    public Future<Void> delete(final URL entryUrl, final String etag) {
+        return run(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                service.delete(entryUrl, etag);
+
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Nothing to release, connections are pooled by the JVM.
+     */
+    @Override
+    public void close() {
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    private static <T> Future<T> run(final Callable<T> request) {
+        final FutureTask<T> task = new FutureTask<T>(request);
+        task.run();
+
+        return task;
+    }
+}
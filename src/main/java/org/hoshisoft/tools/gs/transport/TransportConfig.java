@@ -0,0 +1,71 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.transport;
+
+/**
+ * HTTP settings applied to every request made to the spreadsheet API.
+ *
+ * Timeouts are in milliseconds, 0 meaning no timeout. Keep-alive connections
+ * are pooled by the JVM, size of the pool per host is set with
+ * <code>http.maxConnections</code> system property.
+ */
+public class TransportConfig {
+    private boolean compression = true;
+    private boolean keepAlive = true;
+    private int connectTimeout;
+    private int readTimeout;
+
+    /**
+     * Returns <code>true</code> if gzip compressed responses are requested.
+     * Compressed responses are decompressed while being parsed.
+     */
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public void setCompression(final boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns <code>true</code> if connections are kept open after a request
+     * so that following requests to the same host reuse them.
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(final boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(final int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(final int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+}
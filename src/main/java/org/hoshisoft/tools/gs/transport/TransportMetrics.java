@@ -0,0 +1,90 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of response bodies read from the spreadsheet API.
+ */
+public class TransportMetrics {
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong decodedBytes = new AtomicLong();
+
+    void addResponse(final boolean compressed) {
+        responses.incrementAndGet();
+        if (compressed) {
+            compressedResponses.incrementAndGet();
+        }
+    }
+
+    void addTransferredBytes(final long bytes) {
+        transferredBytes.addAndGet(bytes);
+    }
+
+    void addDecodedBytes(final long bytes) {
+        decodedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Returns number of response bodies read.
+     */
+    public long getResponses() {
+        return responses.get();
+    }
+
+    /**
+     * Returns number of response bodies read that were gzip compressed.
+     */
+    public long getCompressedResponses() {
+        return compressedResponses.get();
+    }
+
+    /**
+     * Returns number of response body bytes as transferred, compressed or not.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * Returns number of response body bytes after decompression.
+     */
+    public long getDecodedBytes() {
+        return decodedBytes.get();
+    }
+
+    /**
+     * Returns ratio of decoded to transferred bytes, 1 if nothing was
+     * transferred.
+     */
+    public double getCompressionRatio() {
+        final long transferred = transferredBytes.get();
+
+        return transferred > 0 ? (double) decodedBytes.get() / transferred : 1;
+    }
+
+    @Override
+    public String toString() {
+        return "TransportMetrics[responses=" + getResponses()
+                + ", compressedResponses=" + getCompressedResponses()
+                + ", transferredBytes=" + getTransferredBytes()
+                + ", decodedBytes=" + getDecodedBytes() + "]";
+    }
+}
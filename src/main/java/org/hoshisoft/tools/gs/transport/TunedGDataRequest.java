@@ -0,0 +1,150 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+import com.google.gdata.client.Service.GDataRequest;
+import com.google.gdata.client.http.GoogleGDataRequest;
+import com.google.gdata.client.http.HttpAuthToken;
+import com.google.gdata.client.http.HttpUrlConnectionSource;
+import com.google.gdata.util.ContentType;
+
+/**
+ * GoogleGDataRequest applying {@link TransportConfig} and recording response
+ * sizes, before and after decompression, into {@link TransportMetrics}.
+ */
+public class TunedGDataRequest extends GoogleGDataRequest {
+    public static final String GZIP = "gzip";
+    public static final String IDENTITY = "identity";
+
+    private final TransportMetrics metrics;
+
+    private InputStream responseStream;
+
+    protected TunedGDataRequest(
+            final RequestType type,
+            final URL requestUrl,
+            final ContentType contentType,
+            final HttpAuthToken authToken,
+            final Map<String, String> headerMap,
+            final Map<String, String> privateHeaderMap,
+            final HttpUrlConnectionSource connectionSource,
+            final TransportConfig config,
+            final TransportMetrics metrics)
+    throws IOException {
+
+        super(
+            type,
+            requestUrl,
+            contentType,
+            authToken,
+            headerMap,
+            privateHeaderMap,
+            connectionSource);
+
+        this.metrics = metrics;
+
+        // Superclass always asks for gzip, so it has to be overridden here.
+        if (!config.isCompression()) {
+            setHeader("Accept-Encoding", IDENTITY);
+        }
+
+        if (!config.isKeepAlive()) {
+            setHeader("Connection", "close");
+        }
+    }
+
+    /**
+     * Returns response stream, decompressing it while it is being read if
+     * response is gzip compressed.
+     */
+    @Override
+    public InputStream getResponseStream() throws IOException {
+        if (!executed) {
+            throw new IllegalStateException(
+                "Must call execute() before attempting to read response");
+        }
+
+        if (!hasOutput) {
+            throw new IllegalStateException("Request doesn't have response data");
+        }
+
+        if (responseStream == null) {
+            responseStream =
+                    CountingInputStream.decode(
+                        httpConn.getInputStream(),
+                        GZIP.equalsIgnoreCase(httpConn.getContentEncoding()),
+                        metrics);
+        }
+
+        return responseStream;
+    }
+
+    /**
+     * Closes response stream, leaving the connection to be reused if
+     * keep-alive is enabled.
+     */
+    @Override
+    public void end() {
+        try {
+            if (responseStream != null) {
+                responseStream.close();
+            }
+        } catch (IOException e) {
+            // OK... connection will not be reused...
+        }
+
+        super.end();
+    }
+
+    /**
+     * Factory of TunedGDataRequest objects, replacing the default factory of
+     * a GoogleService.
+     */
+    public static class Factory extends GoogleGDataRequest.Factory {
+        private final TransportConfig config;
+        private final TransportMetrics metrics;
+
+        public Factory(final TransportConfig config, final TransportMetrics metrics) {
+            this.config = config;
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected GDataRequest createRequest(
+                final RequestType type,
+                final URL requestUrl,
+                final ContentType contentType)
+        throws IOException {
+
+            return new TunedGDataRequest(
+                type,
+                requestUrl,
+                contentType,
+                authToken,
+                headerMap,
+                privateHeaderMap,
+                connectionSource,
+                config,
+                metrics);
+        }
+    }
+}
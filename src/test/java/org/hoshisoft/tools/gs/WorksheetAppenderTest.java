@@ -0,0 +1,292 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.hoshisoft.tools.gs.transport.FeedTransport;
+
+import com.google.gdata.client.Query;
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.BaseEntry;
+import com.google.gdata.data.BaseFeed;
+import com.google.gdata.data.Link;
+import com.google.gdata.data.OutOfLineContent;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.data.spreadsheet.Namespaces;
+import com.google.gdata.data.spreadsheet.WorksheetEntry;
+import com.google.gdata.data.spreadsheet.WorksheetFeed;
+import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+
+public class WorksheetAppenderTest extends TestCase {
+    private static final String WORKSHEET = "log";
+    private static final String LIST_FEED = "http://localhost/feeds/list/key/od6/private/full";
+    private static final long TIMEOUT = 5000;
+
+    public void testRecoversFromTransientFailure() throws Exception {
+        final StubTransport transport = new StubTransport(1);
+        final WorksheetAppender appender = createAppender(transport, 2, 200);
+
+        appender.append(row("1"));
+        appender.append(row("2"));
+
+        awaitTrue(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return appender.getFailureCount() == 1;
+            }
+        });
+
+        // Rows are still accepted while retrying.
+        appender.append(row("3"));
+
+        // Retried without a flush.
+        awaitTrue(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return appender.getWrittenCount() >= 2 && appender.getFailure() == null;
+            }
+        });
+
+        appender.close();
+
+        assertEquals(3, appender.getWrittenCount());
+        assertEquals(1, appender.getFailureCount());
+        assertEquals(0, appender.getQueueDepth());
+        assertEquals(ids("1", "2", "3"), transport.getInserted());
+    }
+
+    public void testFlushReportsPersistentFailure() throws Exception {
+        // Long interval, so that rows are retried only when flushed.
+        final StubTransport transport = new StubTransport(Integer.MAX_VALUE);
+        final WorksheetAppender appender = createAppender(transport, 10, 10000);
+
+        appender.append(row("1"));
+
+        try {
+            appender.flush();
+            fail("flush should report failure");
+        } catch (IOException e) {
+            assertEquals("transient", e.getMessage());
+        }
+
+        assertEquals(0, appender.getWrittenCount());
+        assertEquals(1, appender.getQueueDepth());
+
+        // Producers are held back only once the queue is full.
+        appender.append(row("2"));
+        appender.append(row("3"));
+        appender.append(row("4"));
+        assertFalse(appender.offer(row("5"), 10, TimeUnit.MILLISECONDS));
+        assertEquals(4, appender.getQueueDepth());
+
+        try {
+            appender.close();
+            fail("close should report failure");
+        } catch (IOException e) {
+            assertTrue(appender.isClosed());
+        }
+    }
+
+    public void testRejectedRowIsDropped() throws Exception {
+        final StubTransport transport = new StubTransport(0);
+        final WorksheetAppender appender = createAppender(transport, 10, 20);
+
+        appender.append(row("1"));
+        appender.append(row("bad"));
+        appender.append(row("2"));
+        appender.flush();
+
+        assertEquals(2, appender.getWrittenCount());
+        assertEquals(1, appender.getRejectedCount());
+        assertTrue(appender.getLastRejection() instanceof InvalidEntryException);
+        assertEquals(0, appender.getFailureCount());
+        assertEquals(ids("1", "2"), transport.getInserted());
+
+        // Appender keeps writing after a rejection.
+        appender.append(row("3"));
+        appender.close();
+
+        assertEquals(ids("1", "2", "3"), transport.getInserted());
+    }
+
+    public void testClassifiesRejections() {
+        assertTrue(WorksheetAppender.isRejection(new InvalidEntryException("bad")));
+        assertTrue(WorksheetAppender.isRejection(new ServiceForbiddenException("forbidden")));
+        assertFalse(WorksheetAppender.isRejection(new AuthenticationException("expired")));
+        assertFalse(WorksheetAppender.isRejection(new ResourceNotFoundException("gone")));
+        assertFalse(WorksheetAppender.isRejection(new ServiceException("unavailable")));
+    }
+
+    private static WorksheetAppender createAppender(
+            final FeedTransport transport,
+            final int batchSize,
+            final long flushInterval) {
+
+        final GoogleSpreadsheet spreadsheet =
+                new GoogleSpreadsheet("key", "spreadsheet", null, null);
+        spreadsheet.setTransport(transport);
+
+        return spreadsheet.createAppender(WORKSHEET, 4, batchSize, flushInterval);
+    }
+
+    private static ListEntry row(final String id) {
+        final ListEntry entry = new ListEntry();
+        entry.getCustomElements().setValueLocal("id", id);
+
+        return entry;
+    }
+
+    private static List<String> ids(final String... ids) {
+        final List<String> list = new ArrayList<String>();
+        for (String id : ids) {
+            list.add(id);
+        }
+
+        return list;
+    }
+
+    private static void awaitTrue(final Callable<Boolean> condition) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (!condition.call()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met in " + TIMEOUT + " ms");
+            }
+
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Transport serving a single worksheet, failing the first inserts and
+     * rejecting rows with ids starting with "bad".
+     */
+    private static class StubTransport implements FeedTransport {
+        private final SpreadsheetService service = new SpreadsheetService("test");
+        private final List<String> inserted = new ArrayList<String>();
+        private int failures;
+
+        private StubTransport(final int failures) {
+            this.failures = failures;
+
+            service.setProtocolVersion(SpreadsheetService.Versions.V3);
+        }
+
+        synchronized List<String> getInserted() {
+            return new ArrayList<String>(inserted);
+        }
+
+        @Override
+        public <F extends BaseFeed<?, ?>> Future<F> getFeed(
+                final URL feedUrl,
+                final Class<F> feedClass) {
+
+            return run(new Callable<F>() {
+                @Override
+                public F call() {
+                    final WorksheetEntry worksheet = new WorksheetEntry();
+                    worksheet.setTitle(new PlainTextConstruct(WORKSHEET));
+                    worksheet.addLink(Namespaces.LIST_LINK_REL, Link.Type.ATOM, LIST_FEED);
+
+                    final OutOfLineContent content = new OutOfLineContent();
+                    content.setUri(LIST_FEED);
+                    worksheet.setContent(content);
+
+                    final WorksheetFeed feed = new WorksheetFeed();
+                    feed.getEntries().add(worksheet);
+                    feed.setService(service);
+
+                    return feedClass.cast(feed);
+                }
+            });
+        }
+
+        @Override
+        public <F extends BaseFeed<?, ?>> Future<F> query(
+                final Query query,
+                final Class<F> feedClass) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <E extends BaseEntry<?>> Future<E> insert(
+                final URL feedUrl,
+                final E entry) {
+
+            return run(new Callable<E>() {
+                @Override
+                public E call() throws IOException, ServiceException {
+                    final String id = ((ListEntry) entry).getCustomElements().getValue("id");
+
+                    synchronized (StubTransport.this) {
+                        if (failures > 0) {
+                            failures--;
+                            throw new IOException("transient");
+                        }
+
+                        if (id.startsWith("bad")) {
+                            throw new InvalidEntryException("Unknown column");
+                        }
+
+                        inserted.add(id);
+                    }
+
+                    return entry;
+                }
+            });
+        }
+
+        @Override
+        public <F extends BaseFeed<?, ?>> Future<F> batch(
+                final URL batchUrl,
+                final F feed) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Void> delete(final URL entryUrl, final String etag) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private static <T> Future<T> run(final Callable<T> request) {
+            final FutureTask<T> task = new FutureTask<T>(request);
+            task.run();
+
+            return task;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class SpreadsheetKeyIndexTest extends TestCase {
+
+    public void testResolutionsAreKeyedByUserAndTitle() {
+        final SpreadsheetKeyIndex index = new SpreadsheetKeyIndex();
+
+        index.put("alice", "prices", Arrays.asList("k1"));
+        index.put(null, "prices", Arrays.asList("k2"));
+
+        assertEquals(Arrays.asList("k1"), index.get("alice", "prices"));
+        assertEquals(Arrays.asList("k2"), index.get(null, "prices"));
+        assertNull(index.get("bob", "prices"));
+        assertEquals(2, index.getHitCount());
+        assertEquals(1, index.getMissCount());
+
+        index.invalidate("alice", "prices");
+        assertNull(index.get("alice", "prices"));
+        assertEquals(Arrays.asList("k2"), index.get(null, "prices"));
+    }
+
+    public void testEmptyResolutionsAreNotHeld() {
+        final SpreadsheetKeyIndex index = new SpreadsheetKeyIndex();
+
+        index.put("alice", "prices", Arrays.asList("k1"));
+        index.put("alice", "prices", Collections.<String>emptyList());
+
+        assertNull(index.get("alice", "prices"));
+        assertEquals(0, index.size());
+    }
+
+    public void testExpiredResolutionsAreDropped() throws InterruptedException {
+        final SpreadsheetKeyIndex index = new SpreadsheetKeyIndex(200);
+
+        index.put("alice", "a", Arrays.asList("k1"));
+        index.put("alice", "b", Arrays.asList("k2"));
+        Thread.sleep(300);
+
+        assertNull(index.get("alice", "a"));
+        assertEquals(1, index.size());
+
+        index.put("alice", "c", Arrays.asList("k3"));
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList("k3"), index.get("alice", "c"));
+    }
+}
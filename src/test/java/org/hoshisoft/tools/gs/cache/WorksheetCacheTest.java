@@ -0,0 +1,145 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+import junit.framework.TestCase;
+
+public class WorksheetCacheTest extends TestCase {
+
+    public void testLeastRecentlyUsedAreEvictedWithinBudget() {
+        final WorksheetCache cache = new SizedCache(300);
+        final List<String> evicted = listen(cache);
+
+        cache.put("a", rows(1));
+        cache.put("b", rows(1));
+        cache.put("c", rows(1));
+
+        // Touch a, so b is least recently used.
+        assertNotNull(cache.get("a"));
+        cache.put("d", rows(1));
+
+        assertEquals(Arrays.asList("b"), evicted);
+        assertTrue(cache.isEvicted("b"));
+        assertNull(cache.get("b"));
+        assertEquals(300, cache.getSize());
+        assertEquals(3, cache.getResidentCount());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.put("e", rows(2));
+
+        assertEquals(Arrays.asList("b", "c", "a"), evicted);
+        assertEquals(300, cache.getSize());
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d", "e")), cache.getKeys());
+    }
+
+    public void testMostRecentlyStoredIsKeptOverBudget() {
+        final WorksheetCache cache = new SizedCache(100);
+
+        cache.put("a", rows(1));
+        cache.put("b", rows(5));
+
+        assertTrue(cache.isEvicted("a"));
+        assertNotNull(cache.get("b"));
+        assertEquals(500, cache.getSize());
+
+        cache.setMaxBytes(1000);
+        cache.put("a", rows(1));
+
+        assertFalse(cache.isEvicted("a"));
+        assertEquals(600, cache.getSize());
+        assertEquals(1, cache.getReloadCount());
+    }
+
+    public void testRemovedKeysAreForgotten() {
+        final WorksheetCache cache = new SizedCache(100);
+
+        cache.put("a", rows(1));
+        cache.put("b", rows(1));
+        cache.remove("a");
+        cache.remove("b");
+
+        assertFalse(cache.isEvicted("a"));
+        assertTrue(cache.getKeys().isEmpty());
+        assertEquals(0, cache.getSize());
+
+        cache.put("a", rows(1));
+        assertEquals(0, cache.getReloadCount());
+    }
+
+    public void testEvictedKeysAreBounded() {
+        final WorksheetCache cache = new SizedCache(100, 2);
+
+        for (int i = 0; i < 5; i++) {
+            cache.put("k" + i, rows(1));
+        }
+
+        assertFalse(cache.isEvicted("k0"));
+        assertFalse(cache.isEvicted("k1"));
+        assertTrue(cache.isEvicted("k2"));
+        assertTrue(cache.isEvicted("k3"));
+        assertEquals(new HashSet<String>(Arrays.asList("k2", "k3", "k4")), cache.getKeys());
+        assertEquals(4, cache.getEvictionCount());
+    }
+
+    private static List<String> listen(final WorksheetCache cache) {
+        final List<String> evicted = new ArrayList<String>();
+
+        cache.addEvictionListener(new WorksheetEvictionListener() {
+            @Override
+            public void worksheetEvicted(final String key) {
+                evicted.add(key);
+            }
+        });
+
+        return evicted;
+    }
+
+    private static List<ListEntry> rows(final int count) {
+        final List<ListEntry> entries = new ArrayList<ListEntry>();
+        for (int i = 0; i < count; i++) {
+            entries.add(new ListEntry());
+        }
+
+        return entries;
+    }
+
+    /**
+     * Cache estimating every entry at 100 bytes.
+     */
+    private static class SizedCache extends WorksheetCache {
+
+        private SizedCache(final long maxBytes) {
+            super(maxBytes);
+        }
+
+        private SizedCache(final long maxBytes, final int maxEvictedKeys) {
+            super(maxBytes, maxEvictedKeys);
+        }
+
+        @Override
+        protected long estimateSize(final List<ListEntry> entries) {
+            return 100L * entries.size();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class SingleFlightTest extends TestCase {
+    private static final int CALLERS = 8;
+
+    private ExecutorService callers;
+
+    @Override
+    protected void setUp() {
+        callers = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @Override
+    protected void tearDown() {
+        callers.shutdownNow();
+    }
+
+    public void testConcurrentCallersShareResult() throws Exception {
+        final SingleFlight<String, Object> flight = new SingleFlight<String, Object>();
+        final AtomicInteger calls = new AtomicInteger();
+        final Object result = new Object();
+
+        final List<Future<Object>> results = callConcurrently(flight, new Callable<Object>() {
+            @Override
+            public Object call() {
+                calls.incrementAndGet();
+                return result;
+            }
+        });
+
+        for (Future<Object> future : results) {
+            assertSame(result, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(CALLERS - 1, flight.getCoalescedCount());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    public void testFailureReachesEveryCaller() throws Exception {
+        final SingleFlight<String, Object> flight = new SingleFlight<String, Object>();
+        final IOException failure = new IOException("failed");
+
+        final List<Future<Object>> results = callConcurrently(flight, new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                throw failure;
+            }
+        });
+
+        for (Future<Object> future : results) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("call should have failed");
+            } catch (ExecutionException e) {
+                // Caller's ExecutionException wraps the one of the flight.
+                assertSame(failure, e.getCause().getCause());
+            }
+        }
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    public void testCallsAfterCompletionAreNotShared() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return calls.incrementAndGet();
+            }
+        };
+
+        assertEquals(Integer.valueOf(1), flight.execute("a", call));
+        assertEquals(Integer.valueOf(2), flight.execute("a", call));
+        assertEquals(Integer.valueOf(3), flight.execute("b", call));
+        assertEquals(0, flight.getCoalescedCount());
+    }
+
+    public void testJoinedCallRunsWhenLeaderGetsIt() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return calls.incrementAndGet();
+            }
+        };
+
+        final SingleFlight<String, Integer>.Flight leader = flight.join("a", call);
+        final SingleFlight<String, Integer>.Flight follower = flight.join("a", call);
+
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+        assertEquals(0, calls.get());
+        assertEquals(1, flight.getInFlightCount());
+
+        final Future<Integer> waiting = callers.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return follower.get();
+            }
+        });
+
+        assertEquals(Integer.valueOf(1), leader.get());
+        assertEquals(Integer.valueOf(1), waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(1, flight.getCoalescedCount());
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    /**
+     * Runs <code>call</code> from all callers at once. The call is held until
+     * all other callers have joined it.
+     */
+    private List<Future<Object>> callConcurrently(
+            final SingleFlight<String, Object> flight,
+            final Callable<Object> call) throws InterruptedException {
+
+        final CountDownLatch joined = new CountDownLatch(1);
+
+        final Callable<Object> held = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                joined.await(5, TimeUnit.SECONDS);
+                return call.call();
+            }
+        };
+
+        final List<Future<Object>> results = new ArrayList<Future<Object>>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(callers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return flight.execute("key", held);
+                }
+            }));
+        }
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (flight.getCoalescedCount() < CALLERS - 1
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        joined.countDown();
+
+        return results;
+    }
+}
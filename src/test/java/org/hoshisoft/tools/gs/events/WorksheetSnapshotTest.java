@@ -0,0 +1,123 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.events;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.hoshisoft.tools.gs.enums.RowChangeType;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+import junit.framework.TestCase;
+
+public class WorksheetSnapshotTest extends TestCase {
+
+    public void testFirstLoadAddsAllRows() {
+        final List<ListEntry> entries = Arrays.asList(
+            entry("r1", "name", "a", "price", "1"),
+            entry("r2", "name", "b", "price", "2"));
+
+        final List<RowChange> changes =
+                WorksheetSnapshot.of(entries).changesSince(null, entries);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), RowChangeType.ADDED, "r1", "name", "price");
+        assertChange(changes.get(1), RowChangeType.ADDED, "r2", "name", "price");
+    }
+
+    public void testOnlyChangedRowsAndColumnsAreReported() {
+        final WorksheetSnapshot previous = WorksheetSnapshot.of(Arrays.asList(
+            entry("r1", "name", "a", "price", "1"),
+            entry("r2", "name", "b", "price", "2"),
+            entry("r3", "name", "c", "price", "3")));
+
+        final List<ListEntry> entries = Arrays.asList(
+            entry("r1", "name", "a", "price", "1"),
+            entry("r2", "name", "b", "price", "20"),
+            entry("r4", "name", "d", "price", "4"));
+
+        final List<RowChange> changes =
+                WorksheetSnapshot.of(entries).changesSince(previous, entries);
+
+        assertEquals(3, changes.size());
+        assertChange(changes.get(0), RowChangeType.MODIFIED, "r2", "price");
+        assertSame(entries.get(1), changes.get(0).getEntry());
+        assertChange(changes.get(1), RowChangeType.ADDED, "r4", "name", "price");
+        assertChange(changes.get(2), RowChangeType.REMOVED, "r3", "name", "price");
+        assertNull(changes.get(2).getEntry());
+    }
+
+    public void testAddedAndRemovedColumnsChangeRowsWithValues() {
+        final WorksheetSnapshot previous = WorksheetSnapshot.of(Arrays.asList(
+            entry("r1", "name", "a", "note", "x"),
+            entry("r2", "name", "b", "note", null)));
+
+        final List<ListEntry> entries = Arrays.asList(
+            entry("r2", "name", "b", "price", "2"),
+            entry("r1", "name", "a", "price", null));
+
+        final List<RowChange> changes =
+                WorksheetSnapshot.of(entries).changesSince(previous, entries);
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), RowChangeType.MODIFIED, "r2", "price");
+        assertChange(changes.get(1), RowChangeType.MODIFIED, "r1", "note");
+    }
+
+    public void testUnchangedWorksheetHasNoChanges() {
+        final List<ListEntry> entries = Arrays.asList(
+            entry("r1", "name", "a", "price", "1"));
+
+        final WorksheetSnapshot previous = WorksheetSnapshot.of(entries);
+
+        assertTrue(WorksheetSnapshot.of(entries).changesSince(previous, entries).isEmpty());
+    }
+
+    private static void assertChange(
+            final RowChange change,
+            final RowChangeType type,
+            final String id,
+            final String... columns) {
+
+        assertEquals(type, change.getType());
+        assertEquals(id, change.getId());
+        assertEquals(
+            new HashSet<String>(Arrays.asList(columns)),
+            change.getChangedColumns());
+    }
+
+    /**
+     * Returns entry with <code>id</code> and alternating column names and
+     * values, a <code>null</code> value leaves the column out.
+     */
+    private static ListEntry entry(final String id, final String... columnsAndValues) {
+        final ListEntry entry = new ListEntry();
+        entry.setId(id);
+
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            if (columnsAndValues[i + 1] != null) {
+                entry.getCustomElements().setValueLocal(
+                    columnsAndValues[i],
+                    columnsAndValues[i + 1]);
+            }
+        }
+
+        return entry;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.query;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hoshisoft.tools.gs.formatters.PipeGSOutputFormatter;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+import junit.framework.TestCase;
+
+public class QueryTest extends TestCase {
+
+    public void testFiltersFormattedNumbers() {
+        final List<ListEntry> rows = Arrays.asList(
+            entry("name", "a", "price", "$1,000"),
+            entry("name", "b", "price", "(5)"),
+            entry("name", "c", "price", "n/a"),
+            entry("name", "d", "price", "12%"));
+
+        final List<ListEntry> result =
+                new Query(rows).where(Predicates.greaterThan("price", 0)).execute();
+
+        assertEquals(Arrays.asList("a", "d"), values(result, "name"));
+        assertSame(rows.get(0), result.get(0));
+    }
+
+    public void testJoinsWithPrefixAndKeepsInputOrder() {
+        final List<ListEntry> orders = new ArrayList<ListEntry>();
+        for (int i = 0; i < Query.PARALLEL_THRESHOLD * 3; i++) {
+            orders.add(entry("id", String.valueOf(i), "product", "p" + (i % 3)));
+        }
+
+        final List<ListEntry> products = Arrays.asList(
+            entry("product", "p0", "price", "$1,000"),
+            entry("product", "p1", "price", "2"),
+            entry("product", "p2", "price", "3"),
+            entry("product", "p2", "price", "4"));
+
+        final List<ListEntry> result =
+                new Query(orders)
+                    .join(products, "product", "product", "p_")
+                    .where(Predicates.greaterThan("p_price", 2.5))
+                    .execute();
+
+        // Orders of p0 match once, orders of p2 twice.
+        assertEquals(Query.PARALLEL_THRESHOLD * 3, result.size());
+        assertEquals("0", result.get(0).getCustomElements().getValue("id"));
+        assertEquals("$1,000", result.get(0).getCustomElements().getValue("p_price"));
+        assertEquals("2", result.get(1).getCustomElements().getValue("id"));
+        assertEquals("3", result.get(1).getCustomElements().getValue("p_price"));
+        assertEquals("2", result.get(2).getCustomElements().getValue("id"));
+        assertEquals("4", result.get(2).getCustomElements().getValue("p_price"));
+
+        assertEquals(
+            Arrays.asList("id", "product", "p_product", "p_price"),
+            new ArrayList<String>(result.get(0).getCustomElements().getTags()));
+    }
+
+    public void testJoinLeavesOutRightColumnsAlreadyPresent() {
+        final List<ListEntry> left = Arrays.asList(entry("id", "1", "name", "left"));
+        final List<ListEntry> right = Arrays.asList(entry("id", "1", "name", "right"));
+
+        final ListEntry joined =
+                new Query(left).join(right, "id", "id").execute().get(0);
+
+        assertEquals("left", joined.getCustomElements().getValue("name"));
+        assertEquals(
+            Arrays.asList("id", "name"),
+            new ArrayList<String>(joined.getCustomElements().getTags()));
+    }
+
+    public void testSortsNumbersFirstAndMissingLast() {
+        final List<ListEntry> rows = Arrays.asList(
+            entry("name", "a", "price", "$1,000"),
+            entry("name", "b", "price", "abc"),
+            entry("name", "c"),
+            entry("name", "d", "price", "20"),
+            entry("name", "e", "price", "3"),
+            entry("name", "f", "price", "20"));
+
+        assertEquals(
+            Arrays.asList("e", "d", "f", "a", "b", "c"),
+            values(new Query(rows).orderBy("price", true).execute(), "name"));
+        assertEquals(
+            Arrays.asList("a", "d", "f", "e", "b", "c"),
+            values(new Query(rows).orderBy("price", false).execute(), "name"));
+    }
+
+    public void testKeepsTopRowsWithLimit() {
+        final List<ListEntry> rows = new ArrayList<ListEntry>();
+        for (int i = 0; i < 1000; i++) {
+            rows.add(entry("name", "r" + i, "score", String.valueOf((i * 7919) % 1000)));
+        }
+
+        final List<ListEntry> top =
+                new Query(rows).orderBy("score", false).limit(3).execute();
+
+        assertEquals(Arrays.asList("999", "998", "997"), values(top, "score"));
+        assertTrue(new Query(rows).orderBy("score", false).limit(0).execute().isEmpty());
+        assertEquals(2, new Query(rows).limit(2).execute().size());
+    }
+
+    public void testProjectsSelectedColumns() {
+        final List<ListEntry> rows = Arrays.asList(entry("a", "1", "b", "2", "c", "3"));
+
+        final ListEntry result = new Query(rows).select("c", "a").execute().get(0);
+
+        assertEquals(
+            Arrays.asList("c", "a"),
+            new ArrayList<String>(result.getCustomElements().getTags()));
+        assertEquals("3", result.getCustomElements().getValue("c"));
+    }
+
+    public void testWritesRowsAsLastStageProducesThem() {
+        final List<ListEntry> rows = new ArrayList<ListEntry>();
+        for (int i = 0; i < 100; i++) {
+            rows.add(entry("id", String.valueOf(i), "even", i % 2 == 0 ? "y" : "n"));
+        }
+
+        final AtomicInteger tested = new AtomicInteger();
+        final RowPredicate even = new RowPredicate() {
+            @Override
+            public boolean matches(final Row row) {
+                tested.incrementAndGet();
+                return "y".equals(row.getValue("even"));
+            }
+        };
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Query(rows)
+            .where(even)
+            .limit(2)
+            .select("id")
+            .writeTo(new PrintStream(out, true), new PipeGSOutputFormatter());
+
+        assertEquals(lines("id", "0", "2"), out.toString());
+
+        // Writing stopped at the limit, rows after it were not filtered.
+        assertEquals(3, tested.get());
+    }
+
+    public void testWritesSortedRows() {
+        final List<ListEntry> rows = Arrays.asList(
+            entry("name", "a", "price", "2"),
+            entry("name", "b", "price", "1"));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new Query(rows)
+            .orderBy("price", true)
+            .writeTo(new PrintStream(out, true), new PipeGSOutputFormatter());
+
+        assertEquals(lines("name|price", "b|1", "a|2"), out.toString());
+    }
+
+    private static String lines(final String... lines) {
+        final StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append(System.getProperty("line.separator"));
+        }
+
+        return sb.toString();
+    }
+
+    private static List<String> values(final List<ListEntry> entries, final String column) {
+        final List<String> values = new ArrayList<String>();
+        for (ListEntry entry : entries) {
+            values.add(entry.getCustomElements().getValue(column));
+        }
+
+        return values;
+    }
+
+    private static ListEntry entry(final String... columnsAndValues) {
+        final ListEntry entry = new ListEntry();
+        for (int i = 0; i < columnsAndValues.length; i += 2) {
+            entry.getCustomElements().setValueLocal(columnsAndValues[i], columnsAndValues[i + 1]);
+        }
+
+        return entry;
+    }
+}
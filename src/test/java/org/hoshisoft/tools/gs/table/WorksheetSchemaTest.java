@@ -0,0 +1,102 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.hoshisoft.tools.gs.enums.ColumnType;
+
+import com.google.gdata.data.spreadsheet.ListEntry;
+
+public class WorksheetSchemaTest extends TestCase {
+
+    public void testParsesFormattedNumbers() {
+        assertEquals(1234.5, WorksheetSchema.parseNumber("1,234.50"), 0);
+        assertEquals(1234567.0, WorksheetSchema.parseNumber("1,234,567"), 0);
+        assertEquals(12.0, WorksheetSchema.parseNumber("$12"), 0);
+        assertEquals(-12.0, WorksheetSchema.parseNumber("-$12"), 0);
+        assertEquals(-12.5, WorksheetSchema.parseNumber("(12.50)"), 0);
+        assertEquals(12.0, WorksheetSchema.parseNumber("12 €"), 0);
+        assertEquals(0.45, WorksheetSchema.parseNumber("45%"), 1e-12);
+        assertEquals(-0.5, WorksheetSchema.parseNumber("-50%"), 1e-12);
+        assertEquals(1.5e3, WorksheetSchema.parseNumber("1.5e3"), 0);
+        assertEquals(0.5, WorksheetSchema.parseNumber(".5"), 0);
+        assertEquals(12.0, WorksheetSchema.parseNumber("12."), 0);
+    }
+
+    public void testRejectsNonNumbers() {
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("abc")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("1,23")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("12,34,567")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("$")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("%")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("NaN")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("Infinity")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("12d")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("3f")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("7F")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("0x1p3")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber(".")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("1e")));
+        assertTrue(Double.isNaN(WorksheetSchema.parseNumber("--1")));
+    }
+
+    public void testInfersCodesWithSuffixesAsStrings() {
+        final List<ListEntry> entries = entries("code", "1d", "2d", "3f");
+
+        assertEquals(ColumnType.STRING, new WorksheetSchema().resolveType("code", entries));
+    }
+
+    public void testInfersFormattedNumbers() {
+        final List<ListEntry> entries = entries("price", "$1,200.00", "$12", "(3.50)");
+
+        assertEquals(ColumnType.NUMBER, new WorksheetSchema().resolveType("price", entries));
+
+        final TypedWorksheet worksheet = TypedWorksheet.decode(entries);
+        assertEquals(1208.5, worksheet.summarize("price").getSum(), 1e-9);
+        assertEquals(0, worksheet.getColumn("price").getInvalidCount());
+    }
+
+    public void testCountsInvalidValues() {
+        final List<ListEntry> entries = entries("amount", "10", "n/a", "", "5");
+
+        final TypedWorksheet worksheet =
+                TypedWorksheet.decode(
+                    entries,
+                    new WorksheetSchema().setType("amount", ColumnType.NUMBER));
+
+        final Column column = worksheet.getColumn("amount");
+        assertEquals(1, column.getInvalidCount());
+        assertTrue(column.isMissing(1));
+        assertTrue(column.isMissing(2));
+        assertEquals(15.0, worksheet.summarize("amount").getSum(), 0);
+    }
+
+    private static List<ListEntry> entries(final String column, final String... values) {
+        final List<ListEntry> entries = new ArrayList<ListEntry>();
+
+        for (String value : values) {
+            final ListEntry entry = new ListEntry();
+            entry.getCustomElements().setValueLocal(column, value);
+            entries.add(entry);
+        }
+
+        return entries;
+    }
+}
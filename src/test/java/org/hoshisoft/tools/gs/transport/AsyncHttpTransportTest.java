@@ -0,0 +1,318 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package org.hoshisoft.tools.gs.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import com.google.gdata.client.AuthTokenFactory;
+import com.google.gdata.client.GoogleService;
+import com.google.gdata.client.http.HttpAuthToken;
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.Link;
+import com.google.gdata.data.OutOfLineContent;
+import com.google.gdata.data.PlainTextConstruct;
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.data.spreadsheet.Namespaces;
+import com.google.gdata.data.spreadsheet.WorksheetEntry;
+import com.google.gdata.data.spreadsheet.WorksheetFeed;
+import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.ContentType;
+import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.NotModifiedException;
+import com.google.gdata.util.PreconditionFailedException;
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.VersionConflictException;
+import com.google.gdata.util.common.xml.XmlWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncHttpTransportTest extends TestCase {
+    private static final String LIST_FEED = "http://localhost/feeds/list/key/od6/private/full";
+
+    private SpreadsheetService service;
+    private RenewableTokens tokens;
+    private HttpServer server;
+    private TransportMetrics metrics;
+    private AsyncHttpTransport transport;
+
+    /** Authorization headers of received requests. */
+    private final List<String> authorizations = new CopyOnWriteArrayList<String>();
+
+    /** Authorization accepted by the server, any if <code>null</code>. */
+    private volatile String acceptedAuthorization;
+
+    @Override
+    protected void setUp() throws IOException {
+        service = new SpreadsheetService("test");
+        service.setProtocolVersion(SpreadsheetService.Versions.V3);
+
+        tokens = new RenewableTokens();
+        service.setAuthTokenFactory(tokens);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/worksheets", new FeedHandler(worksheetFeed()));
+        server.createContext("/status/", new StatusHandler());
+        server.start();
+
+        metrics = new TransportMetrics();
+        transport = new AsyncHttpTransport(service, new TransportConfig(), metrics);
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        transport.close();
+        server.stop(0);
+    }
+
+    public void testParsesCompressedFeed() throws Exception {
+        final WorksheetFeed feed =
+                transport.getFeed(url("/worksheets"), WorksheetFeed.class).get();
+
+        assertEquals(1, feed.getEntries().size());
+
+        final WorksheetEntry worksheet = feed.getEntries().get(0);
+        assertEquals("log", worksheet.getTitle().getPlainText());
+
+        // Needs the service set on parsed entries.
+        assertEquals(new URL(LIST_FEED), worksheet.getListFeedUrl());
+
+        assertEquals(1, metrics.getResponses());
+        assertEquals(1, metrics.getCompressedResponses());
+        assertTrue(metrics.getTransferredBytes() > 0);
+        assertTrue(metrics.getDecodedBytes() > metrics.getTransferredBytes());
+        assertEquals(1, authorizations.size());
+        assertEquals("token-1", authorizations.get(0));
+    }
+
+    public void testMapsStatusToGDataExceptions() throws Exception {
+        assertFailure(304, NotModifiedException.class);
+        assertFailure(400, InvalidEntryException.class);
+        assertFailure(403, ServiceForbiddenException.class);
+        assertFailure(404, ResourceNotFoundException.class);
+        assertFailure(409, VersionConflictException.class);
+        assertFailure(412, PreconditionFailedException.class);
+
+        final ServiceException e = assertFailure(503, ServiceException.class);
+        assertEquals("unavailable", e.getResponseBody());
+    }
+
+    public void testResendsOnceAfterRenewingSession() throws Exception {
+        acceptedAuthorization = "token-2";
+
+        final ListEntry inserted =
+                transport.insert(url("/status/201"), new ListEntry()).get();
+
+        assertNotNull(inserted);
+        assertEquals(1, tokens.renewals);
+        assertEquals(2, authorizations.size());
+        assertEquals("token-2", authorizations.get(1));
+    }
+
+    public void testFailsWhenRenewedSessionIsRefused() throws Exception {
+        acceptedAuthorization = "never";
+
+        assertFailure(201, AuthenticationException.class);
+        assertEquals(1, tokens.renewals);
+        assertEquals(2, authorizations.size());
+    }
+
+    public void testFailsWhenSessionCanNotBeRenewed() throws Exception {
+        acceptedAuthorization = "never";
+        tokens.renewable = false;
+
+        assertFailure(201, AuthenticationException.class);
+        assertEquals(0, tokens.renewals);
+        assertEquals(1, authorizations.size());
+    }
+
+    private ServiceException assertFailure(
+            final int status,
+            final Class<? extends ServiceException> type) throws Exception {
+
+        try {
+            transport.getFeed(url("/status/" + status), WorksheetFeed.class).get();
+            fail("status " + status + " should fail");
+            return null;
+        } catch (ExecutionException e) {
+            assertEquals(type, e.getCause().getClass());
+
+            final ServiceException failure = (ServiceException) e.getCause();
+            if (failure.getHttpErrorCodeOverride() != 401) {
+                assertEquals(status, failure.getHttpErrorCodeOverride());
+            }
+
+            return failure;
+        }
+    }
+
+    private URL url(final String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private byte[] worksheetFeed() throws IOException {
+        final WorksheetEntry worksheet = new WorksheetEntry();
+        worksheet.setId("od6");
+        worksheet.setTitle(new PlainTextConstruct("log"));
+        worksheet.addLink(Namespaces.LIST_LINK_REL, Link.Type.ATOM, LIST_FEED);
+
+        final OutOfLineContent content = new OutOfLineContent();
+        content.setUri(LIST_FEED);
+        worksheet.setContent(content);
+
+        final WorksheetFeed feed = new WorksheetFeed();
+        feed.getEntries().add(worksheet);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final XmlWriter writer =
+                new XmlWriter(
+                    new OutputStreamWriter(new GZIPOutputStream(out), "UTF-8"),
+                    "UTF-8");
+        feed.generateAtom(writer, service.getExtensionProfile());
+        writer.close();
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns <code>true</code> if request of <code>exchange</code> is
+     * authorized, otherwise answers it as unauthorized.
+     */
+    private boolean authorize(final HttpExchange exchange) throws IOException {
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        authorizations.add(authorization);
+
+        if (acceptedAuthorization == null || acceptedAuthorization.equals(authorization)) {
+            return true;
+        }
+
+        respond(exchange, 401, "Token expired".getBytes("UTF-8"), null);
+        return false;
+    }
+
+    private static void respond(
+            final HttpExchange exchange,
+            final int status,
+            final byte[] body,
+            final String encoding) throws IOException {
+
+        exchange.getRequestBody().close();
+        exchange.getResponseHeaders().set("Content-Type", ContentType.ATOM_FEED.toString());
+        if (encoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+
+        if (status == 304) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+
+        exchange.close();
+    }
+
+    private class FeedHandler implements HttpHandler {
+        private final byte[] body;
+
+        private FeedHandler(final byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            if (authorize(exchange)) {
+                respond(exchange, 200, body, TunedGDataRequest.GZIP);
+            }
+        }
+    }
+
+    /**
+     * Answers with status given as last path segment. Created entries are
+     * echoed back.
+     */
+    private class StatusHandler implements HttpHandler {
+
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            if (!authorize(exchange)) {
+                return;
+            }
+
+            final String path = exchange.getRequestURI().getPath();
+            final int status = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+
+            if (status == 201) {
+                final ByteArrayOutputStream entry = new ByteArrayOutputStream();
+                final XmlWriter writer = new XmlWriter(new OutputStreamWriter(entry, "UTF-8"), "UTF-8");
+                new ListEntry().generateAtom(writer, service.getExtensionProfile());
+                writer.close();
+
+                respond(exchange, status, entry.toByteArray(), null);
+            } else {
+                respond(exchange, status, "unavailable".getBytes("UTF-8"), null);
+            }
+        }
+    }
+
+    /**
+     * Tokens authorizing as "token-N", N growing with every renewal.
+     */
+    private static class RenewableTokens implements AuthTokenFactory {
+        private volatile int renewals;
+        private volatile boolean renewable = true;
+
+        @Override
+        public AuthToken getAuthToken() {
+            final String header = "token-" + (renewals + 1);
+
+            return new HttpAuthToken() {
+                @Override
+                public String getAuthorizationHeader(final URL requestUrl, final String requestMethod) {
+                    return header;
+                }
+            };
+        }
+
+        @Override
+        public void handleSessionExpiredException(final GoogleService.SessionExpiredException e)
+                throws GoogleService.SessionExpiredException {
+
+            if (!renewable) {
+                throw e;
+            }
+
+            renewals++;
+        }
+    }
+}
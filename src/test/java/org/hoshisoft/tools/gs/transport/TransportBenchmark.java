@@ -0,0 +1,233 @@
+/**
+ *   Copyright 2013 Luka Obradovic
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+package org.hoshisoft.tools.gs.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.spreadsheet.ListEntry;
+import com.google.gdata.data.spreadsheet.ListFeed;
+import com.google.gdata.util.ContentType;
+import com.google.gdata.util.common.xml.XmlWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Compares throughput of {@link GDataTransport} and
+ * {@link AsyncHttpTransport} fetching a list feed from a local stand-in of
+ * the spreadsheet API, which answers every request after a fixed delay.
+ *
+ * Arguments, all optional: number of requests, number of concurrent
+ * requests, rows per feed and response delay in milliseconds.
+ */
+public class TransportBenchmark {
+    private static final String FEED_PATH = "/feeds/list/key/od6/private/full";
+
+    public static void main(final String[] args) throws Exception {
+        final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        final int rows = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        final int delay = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        // Keep-alive pool of HttpURLConnection, used by gdata.
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        final SpreadsheetService service = new SpreadsheetService("TransportBenchmark");
+        service.setProtocolVersion(SpreadsheetService.Versions.V3);
+
+        final HttpServer server = startServer(createFeed(service, rows), delay);
+        final URL feedUrl =
+                new URL("http://localhost:" + server.getAddress().getPort() + FEED_PATH);
+
+        try {
+            System.out.println(
+                "requests: " + requests
+                + ", concurrency: " + concurrency
+                + ", rows: " + rows
+                + ", delay: " + delay + " ms");
+
+            final TransportConfig config = new TransportConfig();
+
+            // Blocking transport needs a thread per concurrent request.
+            final TransportMetrics gdataMetrics = new TransportMetrics();
+            service.setRequestFactory(new TunedGDataRequest.Factory(config, gdataMetrics));
+
+            final ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+            try {
+                run("gdata", new GDataTransport(service), feedUrl, 100, concurrency, callers);
+                report(
+                    "gdata (" + concurrency + " threads)",
+                    run("gdata", new GDataTransport(service), feedUrl, requests, concurrency, callers),
+                    requests,
+                    gdataMetrics);
+            } finally {
+                callers.shutdown();
+            }
+
+            // Non-blocking transport keeps all requests in flight from one thread.
+            final TransportMetrics asyncMetrics = new TransportMetrics();
+            final AsyncHttpTransport async =
+                    new AsyncHttpTransport(
+                        service,
+                        config,
+                        asyncMetrics,
+                        concurrency,
+                        AsyncHttpTransport.DEFAULT_IO_THREADS);
+            try {
+                run("async", async, feedUrl, 100, concurrency, null);
+                report(
+                    "async (" + AsyncHttpTransport.DEFAULT_IO_THREADS + " I/O threads)",
+                    run("async", async, feedUrl, requests, concurrency, null),
+                    requests,
+                    asyncMetrics);
+            } finally {
+                async.close();
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Fetches feed <code>requests</code> times, at most
+     * <code>concurrency</code> requests at a time, through
+     * <code>transport</code>. Requests are started by <code>callers</code>,
+     * or by the current thread if <code>null</code>.
+     *
+     * @return elapsed nanoseconds
+     */
+    private static long run(
+            final String name,
+            final FeedTransport transport,
+            final URL feedUrl,
+            final int requests,
+            final int concurrency,
+            final ExecutorService callers)
+    throws Exception {
+
+        final long start = System.nanoTime();
+
+        final List<Future<ListFeed>> window = new ArrayList<Future<ListFeed>>(concurrency);
+
+        for (int i = 0; i < requests; i++) {
+            if (callers != null) {
+                window.add(callers.submit(new Callable<ListFeed>() {
+                    @Override
+                    public ListFeed call() throws Exception {
+                        return transport.getFeed(feedUrl, ListFeed.class).get();
+                    }
+                }));
+            } else {
+                window.add(transport.getFeed(feedUrl, ListFeed.class));
+            }
+
+            if (window.size() == concurrency || i == requests - 1) {
+                for (Future<ListFeed> request : window) {
+                    if (request.get().getEntries().isEmpty()) {
+                        throw new IllegalStateException(name + ": empty feed");
+                    }
+                }
+                window.clear();
+            }
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private static void report(
+            final String name,
+            final long nanos,
+            final int requests,
+            final TransportMetrics metrics) {
+
+        System.out.println(String.format(
+            "%-24s %8.1f requests/s, %8.1f ms, %s",
+            name,
+            requests / (nanos / 1e9),
+            nanos / 1e6,
+            metrics));
+    }
+
+    /**
+     * Returns gzip compressed Atom list feed of <code>rows</code> rows.
+     */
+    private static byte[] createFeed(final SpreadsheetService service, final int rows)
+            throws IOException {
+
+        final ListFeed feed = new ListFeed();
+        for (int i = 0; i < rows; i++) {
+            final ListEntry entry = new ListEntry();
+            entry.setId(FEED_PATH + "/" + i);
+            entry.getCustomElements().setValueLocal("id", String.valueOf(i));
+            entry.getCustomElements().setValueLocal("name", "row " + i);
+            entry.getCustomElements().setValueLocal("amount", String.valueOf(i * 7 % 1000));
+            feed.getEntries().add(entry);
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final XmlWriter writer =
+                new XmlWriter(
+                    new OutputStreamWriter(new GZIPOutputStream(out), "UTF-8"),
+                    "UTF-8");
+        feed.generateAtom(writer, service.getExtensionProfile());
+        writer.close();
+
+        return out.toByteArray();
+    }
+
+    private static HttpServer startServer(final byte[] body, final int delay)
+            throws IOException {
+
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+        server.createContext(FEED_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", ContentType.ATOM_FEED.toString());
+                exchange.getResponseHeaders().set("Content-Encoding", TunedGDataRequest.GZIP);
+                exchange.sendResponseHeaders(200, body.length);
+
+                final OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        return server;
+    }
+}